@@ -0,0 +1,48 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ASMHelper;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ASMHelper#createClassNode} and {@link ASMHelper#createBytes} on classes of different sizes.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ASMHelperBenchmark {
+
+    @Param ({ "10", "100", "1000" })
+    public int methods;
+
+    private byte[] bytes;
+    private ClassNode cnode;
+
+    @Setup
+    public void setup() {
+        bytes = BenchClasses.generate("bench/Generated", methods);
+        cnode = ASMHelper.createClassNode(bytes, ClassReader.EXPAND_FRAMES);
+    }
+
+    @Benchmark
+    public ClassNode createClassNode() {
+        return ASMHelper.createClassNode(bytes, ClassReader.EXPAND_FRAMES);
+    }
+
+    @Benchmark
+    public byte[] createBytes() {
+        return ASMHelper.createBytes(cnode, 0);
+    }
+
+    @Benchmark
+    public byte[] createBytesComputeFrames() {
+        return ASMHelper.createBytes(cnode, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    }
+}
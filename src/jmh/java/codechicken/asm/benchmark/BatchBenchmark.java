@@ -0,0 +1,60 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ModularASMTransformer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ModularASMTransformer#transformAll} against sequential {@link ModularASMTransformer#transform} calls.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class BatchBenchmark {
+
+    @Param ({ "64" })
+    public int classes;
+
+    private ModularASMTransformer transformer;
+    private Map<String, byte[]> input;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        transformer = new ModularASMTransformer(null, "benchmark");
+        input = new HashMap<>();
+        for (int i = 0; i < classes; i++) {
+            String name = "bench/Generated" + i;
+            input.put(name.replace('/', '.'), BenchClasses.generate(name, 100));
+            BenchClasses.transformer(name, "all").transformers.values()
+                    .forEach(list -> transformer.addAll(list.getTransformers()));
+        }
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int sequential() {
+        int size = 0;
+        for (Map.Entry<String, byte[]> entry : input.entrySet()) {
+            size += transformer.transform(entry.getKey(), entry.getValue()).length;
+        }
+        return size;
+    }
+
+    @Benchmark
+    public ModularASMTransformer.TransformResults parallel() {
+        return transformer.transformAll(input, pool);
+    }
+}
@@ -0,0 +1,147 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ASMBlock;
+import codechicken.asm.ModularASMTransformer;
+import codechicken.asm.ObfMapping;
+import codechicken.asm.transformers.FieldWriter;
+import codechicken.asm.transformers.MethodInjector;
+import codechicken.asm.transformers.MethodReplacer;
+import codechicken.asm.transformers.MethodWriter;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.io.File;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates synthetic classes and transformer sets for the benchmarks.
+ */
+public class BenchClasses {
+
+    public static final String HOOKS = "codechicken/asm/benchmark/Hooks";
+
+    /**
+     * Generates a class with the provided number of methods.
+     * Each method has a loop, a static call, a field read and a merge of two reference types,
+     * so computing its frames needs the class hierarchy.
+     *
+     * @param name    Internal name of the class.
+     * @param methods Number of methods.
+     * @return The class bytes.
+     */
+    public static byte[] generate(String name, int methods) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitField(ACC_PUBLIC, "field", "I", null, null).visitEnd();
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int i = 0; i < methods; i++) {
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "m" + i, "(I)I", null, null);
+            mv.visitCode();
+            Label start = new Label();
+            mv.visitLabel(start);
+            mv.visitLineNumber(i * 10 + 1, start);
+            //int y = 0; for (int j = 0; j < x; j++) y = Math.max(y, j) + field;
+            mv.visitInsn(ICONST_0);
+            mv.visitVarInsn(ISTORE, 2);
+            mv.visitInsn(ICONST_0);
+            mv.visitVarInsn(ISTORE, 3);
+            Label cond = new Label();
+            Label body = new Label();
+            mv.visitJumpInsn(GOTO, cond);
+            mv.visitLabel(body);
+            mv.visitVarInsn(ILOAD, 2);
+            mv.visitVarInsn(ILOAD, 3);
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "field", "I");
+            mv.visitInsn(IADD);
+            mv.visitVarInsn(ISTORE, 2);
+            mv.visitIincInsn(3, 1);
+            mv.visitLabel(cond);
+            mv.visitVarInsn(ILOAD, 3);
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitJumpInsn(IF_ICMPLT, body);
+            //List l = x > 0 ? new ArrayList() : new LinkedList();
+            Label other = new Label();
+            Label merge = new Label();
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitJumpInsn(IFLE, other);
+            mv.visitTypeInsn(NEW, "java/util/ArrayList");
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V", false);
+            mv.visitJumpInsn(GOTO, merge);
+            mv.visitLabel(other);
+            mv.visitTypeInsn(NEW, "java/util/LinkedList");
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKESPECIAL, "java/util/LinkedList", "<init>", "()V", false);
+            mv.visitLabel(merge);
+            mv.visitVarInsn(ASTORE, 4);
+            mv.visitVarInsn(ALOAD, 4);
+            mv.visitLdcInsn("a");
+            mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
+            mv.visitInsn(POP);
+            mv.visitVarInsn(ILOAD, 2);
+            mv.visitVarInsn(ALOAD, 4);
+            mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "size", "()I", true);
+            mv.visitInsn(IADD);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Builds a transformer for the provided class using the provided mix of transformers.
+     *
+     * @param name Internal name of the class.
+     * @param mix  One of injector, replacer, writer, field or all.
+     * @return The transformer.
+     */
+    public static ModularASMTransformer transformer(String name, String mix) {
+        ModularASMTransformer transformer = new ModularASMTransformer(new File("build/jmh_dumps"), "benchmark");
+        ObfMapping m0 = new ObfMapping(name, "m0", "(I)I");
+        boolean all = mix.equals("all");
+        if (all || mix.equals("injector")) {
+            InsnList injection = new InsnList();
+            injection.add(new MethodInsnNode(INVOKESTATIC, HOOKS, "hook", "(I)I", false));
+            transformer.add(new MethodInjector(m0, new ASMBlock(maxNeedle()), new ASMBlock(injection), false));
+        }
+        if (all || mix.equals("replacer")) {
+            InsnList replacement = new InsnList();
+            replacement.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Math", "min", "(II)I", false));
+            transformer.add(new MethodReplacer(all ? new ObfMapping(name, "m1", "(I)I") : m0, new ASMBlock(maxNeedle()), new ASMBlock(replacement)));
+        }
+        if (all || mix.equals("writer")) {
+            InsnList list = new InsnList();
+            list.add(new VarInsnNode(ILOAD, 1));
+            list.add(new InsnNode(IRETURN));
+            transformer.add(new MethodWriter(ACC_PUBLIC, new ObfMapping(name, "written", "(I)I"), list));
+        }
+        if (all || mix.equals("field")) {
+            transformer.add(new FieldWriter(ACC_PUBLIC, new ObfMapping(name, "added", "I")));
+        }
+        return transformer;
+    }
+
+    private static InsnList maxNeedle() {
+        InsnList needle = new InsnList();
+        needle.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Math", "max", "(II)I", false));
+        return needle;
+    }
+}
@@ -0,0 +1,81 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ModularASMTransformer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ModularASMTransformer#transform} called from a growing number of threads sharing one transformer.
+ * Lookups read the published snapshot without locking, so throughput should scale with the threads.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ConcurrentTransformBenchmark {
+
+    @Param ({ "16" })
+    public int classes;
+
+    private ModularASMTransformer transformer;
+    private String[] names;
+    private byte[][] bytes;
+
+    @Setup
+    public void setup() {
+        transformer = new ModularASMTransformer(null, "benchmark");
+        names = new String[classes];
+        bytes = new byte[classes][];
+        for (int i = 0; i < classes; i++) {
+            String name = "bench/Generated" + i;
+            names[i] = name.replace('/', '.');
+            bytes[i] = BenchClasses.generate(name, 20);
+            BenchClasses.transformer(name, "all").transformers.values()
+                    .forEach(list -> transformer.addAll(list.getTransformers()));
+        }
+    }
+
+    @State (Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        int next(int classes) {
+            int i = next;
+            next = (i + 1) % classes;
+            return i;
+        }
+    }
+
+    private byte[] transform(Cursor cursor) {
+        int i = cursor.next(classes);
+        return transformer.transform(names[i], bytes[i]);
+    }
+
+    @Benchmark
+    @Threads (1)
+    public byte[] threads1(Cursor cursor) {
+        return transform(cursor);
+    }
+
+    @Benchmark
+    @Threads (2)
+    public byte[] threads2(Cursor cursor) {
+        return transform(cursor);
+    }
+
+    @Benchmark
+    @Threads (4)
+    public byte[] threads4(Cursor cursor) {
+        return transform(cursor);
+    }
+
+    @Benchmark
+    @Threads (8)
+    public byte[] threads8(Cursor cursor) {
+        return transform(cursor);
+    }
+}
@@ -0,0 +1,48 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ASMHelper;
+import codechicken.asm.ClassHierarchyManager;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame computation through {@link codechicken.asm.CC_ClassWriter} with a warm and a cold {@link ClassHierarchyManager}.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class HierarchyBenchmark {
+
+    @Param ({ "10", "100" })
+    public int methods;
+
+    @Param ({ "warm", "cold" })
+    public String hierarchy;
+
+    private ClassNode cnode;
+
+    @Setup
+    public void setup() {
+        cnode = ASMHelper.createClassNode(BenchClasses.generate("bench/Generated", methods), ClassReader.EXPAND_FRAMES);
+        ASMHelper.createBytes(cnode, ClassWriter.COMPUTE_FRAMES);
+    }
+
+    @Setup (Level.Invocation)
+    public void reset() {
+        if (hierarchy.equals("cold")) {
+            ClassHierarchyManager.DEFAULT.clear();
+        }
+    }
+
+    @Benchmark
+    public byte[] computeFrames() {
+        return ASMHelper.createBytes(cnode, ClassWriter.COMPUTE_FRAMES);
+    }
+}
@@ -0,0 +1,107 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ASMBlock;
+import codechicken.asm.ASMHelper;
+import codechicken.asm.InsnListSection;
+import codechicken.asm.ObfMapping;
+import codechicken.asm.transformers.MethodInjector;
+import codechicken.asm.transformers.MethodReplacer;
+import org.objectweb.asm.tree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A {@link MethodInjector} and a {@link MethodReplacer} whose needles occur hundreds of times in one method.
+ * {@code injectLabelled} uses a needle with a named label, so every occurrence also maps its labels.
+ * Each invocation also copies the method, see {@link #copy()} for that cost alone.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class InjectionBenchmark {
+
+    @Param ({ "100", "500", "2000" })
+    public int sites;
+
+    private InsnList method;
+    private MethodInjector injector;
+    private MethodReplacer replacer;
+    private MethodInjector labelledInjector;
+
+    @Setup
+    public void setup() {
+        ObfMapping target = new ObfMapping("bench/Target", "method", "()V");
+        method = new InsnList();
+        for (int i = 0; i < sites; i++) {
+            LabelNode label = new LabelNode();
+            method.add(label);
+            method.add(new LineNumberNode(i, label));
+            method.add(new VarInsnNode(ILOAD, 0));
+            method.add(new MethodInsnNode(INVOKESTATIC, "bench/Target", "site", "(I)I", false));
+            method.add(new InsnNode(POP));
+            method.add(new JumpInsnNode(GOTO, label));
+        }
+        method.add(new InsnNode(RETURN));
+
+        InsnList needle = new InsnList();
+        needle.add(new MethodInsnNode(INVOKESTATIC, "bench/Target", "site", "(I)I", false));
+        InsnList injection = new InsnList();
+        injection.add(new MethodInsnNode(INVOKESTATIC, "bench/Hooks", "hook", "(I)I", false));
+        injector = new MethodInjector(target, needle, injection, false);
+
+        InsnList replaceNeedle = new InsnList();
+        replaceNeedle.add(new VarInsnNode(ILOAD, 0));
+        replaceNeedle.add(new MethodInsnNode(INVOKESTATIC, "bench/Target", "site", "(I)I", false));
+        InsnList replacement = new InsnList();
+        replacement.add(new InsnNode(ICONST_0));
+        replacement.add(new InsnNode(ICONST_1));
+        replacement.add(new InsnNode(IADD));
+        replacer = new MethodReplacer(target, replaceNeedle, replacement);
+
+        LabelNode loop = new LabelNode();
+        InsnList labelledNeedle = new InsnList();
+        labelledNeedle.add(loop);
+        labelledNeedle.add(new VarInsnNode(ILOAD, 0));
+        ASMBlock labelled = new ASMBlock(new InsnListSection(labelledNeedle), Collections.singletonMap("loop", loop));
+        labelledInjector = new MethodInjector(target, labelled, new ASMBlock(injection), false);
+    }
+
+    private MethodNode copyMethod() {
+        MethodNode mv = new MethodNode(ACC_STATIC, "method", "()V", null, null);
+        mv.instructions = ASMHelper.cloneInsnList(method);
+        return mv;
+    }
+
+    @Benchmark
+    public MethodNode copy() {
+        return copyMethod();
+    }
+
+    @Benchmark
+    public MethodNode inject() {
+        MethodNode mv = copyMethod();
+        injector.transform(mv);
+        return mv;
+    }
+
+    @Benchmark
+    public MethodNode injectLabelled() {
+        MethodNode mv = copyMethod();
+        labelledInjector.transform(mv);
+        return mv;
+    }
+
+    @Benchmark
+    public MethodNode replace() {
+        MethodNode mv = copyMethod();
+        replacer.transform(mv);
+        return mv;
+    }
+}
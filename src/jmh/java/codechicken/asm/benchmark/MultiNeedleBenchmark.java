@@ -0,0 +1,70 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.InsnComparator;
+import codechicken.asm.InsnListSection;
+import org.objectweb.asm.tree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * {@link InsnComparator#findAll} searching for many needles in one pass, against one {@link InsnComparator#find}
+ * per needle as each transformer on a method used to do.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class MultiNeedleBenchmark {
+
+    @Param ({ "1000", "10000" })
+    public int instructions;
+
+    @Param ({ "1", "10", "50" })
+    public int needleCount;
+
+    private InsnListSection haystack;
+    private List<InsnListSection> needles;
+
+    @Setup
+    public void setup() {
+        InsnList list = new InsnList();
+        for (int i = 0; list.size() < instructions; i++) {
+            LabelNode label = new LabelNode();
+            list.add(label);
+            list.add(new LineNumberNode(i, label));
+            list.add(new VarInsnNode(ILOAD, i % 4));
+            list.add(new MethodInsnNode(INVOKESTATIC, "bench/Target", "hook" + i % 100, "(I)I", false));
+            list.add(new InsnNode(POP));
+        }
+        haystack = new InsnListSection(list);
+
+        needles = new ArrayList<>();
+        for (int i = 0; i < needleCount; i++) {
+            InsnListSection needle = new InsnListSection();
+            needle.add(new VarInsnNode(ILOAD, i % 4));
+            needle.add(new MethodInsnNode(INVOKESTATIC, "bench/Target", "hook" + i, "(I)I", false));
+            needles.add(needle);
+        }
+    }
+
+    @Benchmark
+    public List<List<InsnListSection>> findAll() {
+        return InsnComparator.findAll(haystack, needles);
+    }
+
+    @Benchmark
+    public List<List<InsnListSection>> findEach() {
+        List<List<InsnListSection>> found = new ArrayList<>();
+        for (InsnListSection needle : needles) {
+            found.add(InsnComparator.find(haystack, needle));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,106 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.InsnComparator;
+import codechicken.asm.InsnListSection;
+import codechicken.asm.InsnMatcher;
+import org.objectweb.asm.tree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * {@link InsnComparator#find} on large methods, against the previous approach of matching at every offset.
+ * {@code findCompiled} reuses a needle compiled in setup, as transformers do.
+ * <p>
+ * {@code typical} is ordinary code with labels and line numbers where the needle occurs a few times,
+ * {@code adversarial} is a run of identical loads with a needle that only fails on its last instruction.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class NeedleBenchmark {
+
+    @Param ({ "10000", "50000" })
+    public int instructions;
+
+    @Param ({ "4", "32", "100" })
+    public int needleSize;
+
+    @Param ({ "typical", "adversarial" })
+    public String shape;
+
+    private InsnListSection haystack;
+    private InsnListSection needle;
+    private InsnMatcher matcher;
+
+    @Setup
+    public void setup() {
+        InsnList list = new InsnList();
+        needle = new InsnListSection();
+        if (shape.equals("adversarial")) {
+            for (int i = 0; i < instructions; i++) {
+                list.add(new VarInsnNode(ILOAD, i % 1000 == 999 ? 1 : 0));
+            }
+            for (int i = 0; i < needleSize - 1; i++) {
+                needle.add(new VarInsnNode(ILOAD, 0));
+            }
+            needle.add(new VarInsnNode(ILOAD, 2));
+        } else {
+            List<AbstractInsnNode> block = new ArrayList<>();
+            for (int i = 0; list.size() < instructions; i++) {
+                LabelNode label = new LabelNode();
+                list.add(label);
+                list.add(new LineNumberNode(i, label));
+                list.add(new VarInsnNode(ILOAD, i % 4));
+                list.add(new IntInsnNode(BIPUSH, i % 7));
+                list.add(new InsnNode(IADD));
+                list.add(new MethodInsnNode(INVOKESTATIC, "bench/Target", "hook" + i % 5, "(I)I", false));
+                list.add(new FieldInsnNode(PUTSTATIC, "bench/Target", "field", "I"));
+                if (block.size() < needleSize) {
+                    for (AbstractInsnNode insn = list.get(list.size() - 5); insn != null && block.size() < needleSize; insn = insn.getNext()) {
+                        if (insn.getOpcode() != -1) {
+                            block.add(insn);
+                        }
+                    }
+                }
+            }
+            for (AbstractInsnNode insn : block) {
+                needle.add(insn.clone(null));
+            }
+        }
+        haystack = new InsnListSection(list);
+        matcher = new InsnMatcher(needle);
+    }
+
+    @Benchmark
+    public List<InsnListSection> find() {
+        return InsnComparator.find(haystack, needle);
+    }
+
+    @Benchmark
+    public List<InsnListSection> findCompiled() {
+        return InsnComparator.find(haystack, matcher);
+    }
+
+    @Benchmark
+    public List<InsnListSection> matchEveryOffset() {
+        Set<LabelNode> controlFlowLabels = InsnComparator.getControlFlowLabels(haystack);
+        List<InsnListSection> list = new ArrayList<>();
+        for (int start = 0; start <= haystack.size() - needle.size(); start++) {
+            InsnListSection section = InsnComparator.matches(haystack.drop(start), needle, controlFlowLabels);
+            if (section != null) {
+                list.add(section);
+                start = section.end - 1;
+            }
+        }
+        return list;
+    }
+}
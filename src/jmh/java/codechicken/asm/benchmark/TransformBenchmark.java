@@ -0,0 +1,38 @@
+package codechicken.asm.benchmark;
+
+import codechicken.asm.ModularASMTransformer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ModularASMTransformer#transform} on classes of different sizes with different transformer mixes.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class TransformBenchmark {
+
+    @Param ({ "10", "100", "1000" })
+    public int methods;
+
+    @Param ({ "injector", "replacer", "writer", "field", "all" })
+    public String mix;
+
+    private ModularASMTransformer transformer;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        bytes = BenchClasses.generate("bench/Generated", methods);
+        transformer = BenchClasses.transformer("bench/Generated", mix);
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        return transformer.transform("bench.Generated", bytes);
+    }
+}
@@ -148,16 +148,18 @@ public class ASMBlock {
 
         HashMap<LabelNode, LabelNode> labelMap = new HashMap<>();
 
+        AbstractInsnNode insn1 = list.getFirst();
+        AbstractInsnNode insn2 = list2.getFirst();
         for (int i = 0, k = 0; i < list.size() && k < list2.size(); ) {
-            AbstractInsnNode insn1 = list.get(i);
             if (!InsnComparator.insnImportant(insn1, cFlowLabels1)) {
                 i++;
+                insn1 = insn1.getNext();
                 continue;
             }
 
-            AbstractInsnNode insn2 = list2.get(k);
             if (!InsnComparator.insnImportant(insn2, cFlowLabels2)) {
                 k++;
+                insn2 = insn2.getNext();
                 continue;
             }
 
@@ -175,6 +177,8 @@ public class ASMBlock {
             }
             i++;
             k++;
+            insn1 = insn1.getNext();
+            insn2 = insn2.getNext();
         }
 
         for (Entry<String, LabelNode> entry : labels.entrySet()) {
@@ -1,5 +1,7 @@
 package codechicken.asm;
 
+import codechicken.asm.metrics.Metrics;
+import codechicken.asm.metrics.TransformMetrics;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -52,11 +54,43 @@ public class ASMHelper {
     }
 
     public static byte[] createBytes(ClassNode cnode, int flags) {
-        ClassWriter cw = new CC_ClassWriter(flags);
+        return createBytes(cnode, flags, ClassHierarchyManager.DEFAULT);
+    }
+
+    public static byte[] createBytes(ClassNode cnode, int flags, ClassHierarchy hierarchy) {
+        ClassWriter cw = new CC_ClassWriter(flags, hierarchy);
         cnode.accept(cw);
         return cw.toByteArray();
     }
 
+    /**
+     * Computes frames and maxs for a single method of a class.
+     * The method is written on its own into a throwaway class with the same header and read back.
+     *
+     * @param cnode The class the method belongs to.
+     * @param mnode The method.
+     * @return A copy of the method with computed frames and maxs.
+     */
+    public static MethodNode computeFrames(ClassNode cnode, MethodNode mnode) {
+        return computeFrames(cnode, mnode, ClassHierarchyManager.DEFAULT);
+    }
+
+    /**
+     * @see #computeFrames(ClassNode, MethodNode)
+     */
+    public static MethodNode computeFrames(ClassNode cnode, MethodNode mnode, ClassHierarchy hierarchy) {
+        long start = Metrics.start();
+        ClassWriter cw = new CC_ClassWriter(ClassWriter.COMPUTE_FRAMES, hierarchy);
+        cw.visit(cnode.version, cnode.access, cnode.name, cnode.signature, cnode.superName, cnode.interfaces.toArray(new String[0]));
+        mnode.accept(cw);
+        cw.visitEnd();
+
+        ClassNode framed = new ClassNode();
+        new ClassReader(cw.toByteArray()).accept(framed, 0);
+        TransformMetrics.INSTANCE.frames(start);
+        return framed.methods.get(0);
+    }
+
     public static Map<LabelNode, LabelNode> cloneLabels(InsnList list) {
         return new InsnListSection(list).cloneLabels();
     }
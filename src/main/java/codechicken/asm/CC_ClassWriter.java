@@ -1,28 +1,69 @@
 package codechicken.asm;
 
+import codechicken.asm.metrics.Metrics;
+import codechicken.asm.metrics.TransformMetrics;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
 public class CC_ClassWriter extends ClassWriter {
 
+    /**
+     * The most type pairs to remember common super classes for, the memo is cleared when full.
+     */
+    public static final int COMMON_SUPER_MAX = ClassHierarchyManager.DEFAULT.commonSuperMax;
+
+    /**
+     * The hierarchy common super classes are resolved with.
+     */
+    public final ClassHierarchy hierarchy;
+
     public CC_ClassWriter(int flags) {
+        this(flags, ClassHierarchyManager.DEFAULT);
+    }
+
+    public CC_ClassWriter(int flags, ClassHierarchy hierarchy) {
         super(flags);
+        this.hierarchy = hierarchy;
+    }
+
+    public CC_ClassWriter(ClassReader reader, int flags) {
+        this(reader, flags, ClassHierarchyManager.DEFAULT);
+    }
+
+    public CC_ClassWriter(ClassReader reader, int flags, ClassHierarchy hierarchy) {
+        super(reader, flags);
+        this.hierarchy = hierarchy;
     }
 
     @Override
     protected String getCommonSuperClass(String type1, String type2) {
-        String c = type1.replace('/', '.');
-        String d = type2.replace('/', '.');
-        if (ClassHierarchyManager.classExtends(d, c)) {
-            return type1;
+        long start = Metrics.start();
+        try {
+            return hierarchy.getCommonSuperClass(type1.replace('/', '.'), type2.replace('/', '.')).replace('.', '/');
+        } finally {
+            TransformMetrics.INSTANCE.commonSuperClass(start);
         }
-        if (ClassHierarchyManager.classExtends(c, d)) {
-            return type2;
-        }
-        do {
-            c = ClassHierarchyManager.getSuperClass(c);
-        }
-        while (!ClassHierarchyManager.classExtends(d, c));
+    }
+
+    /**
+     * Forgets every remembered common super class of the default hierarchy,
+     * needed if classes are redeclared with different super types.
+     */
+    public static void clearCommonSuperCache() {
+        ClassHierarchyManager.DEFAULT.clearCommonSuperCache();
+    }
+
+    /**
+     * @return The number of common super class requests to the default hierarchy answered from the memo.
+     */
+    public static long getCommonSuperHits() {
+        return ClassHierarchyManager.DEFAULT.getCommonSuperHits();
+    }
 
-        return c.replace('.', '/');
+    /**
+     * @return The number of common super class requests to the default hierarchy that had to walk the hierarchy.
+     */
+    public static long getCommonSuperMisses() {
+        return ClassHierarchyManager.DEFAULT.getCommonSuperMisses();
     }
 }
@@ -0,0 +1,955 @@
+package codechicken.asm;
+
+import codechicken.asm.metrics.HierarchyMetrics;
+import codechicken.asm.metrics.Metrics;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Resolves and caches the super types of classes, used to compute frames.
+ * <p>
+ * Each instance is an independent view of one class loading environment, with its own lookup functions
+ * and caches. {@link ClassHierarchyManager} is a static facade over a default instance.
+ * <p>
+ * Classes are resolved from, in order, a loaded {@link HierarchyIndex}, the JDK runtime image,
+ * the registered lookup functions, the {@link #resourceLoader}, and reflection if allowed.
+ * <p>
+ * Class names are interned to int ids, and each class keeps its super types as a sorted id array,
+ * so a subtype check is a single binary search.
+ * <p>
+ * Safe to use from any number of threads. A {@link SuperCache} is immutable once published,
+ * and each class name is looked up at most once at a time, other threads asking for the same
+ * name wait for that lookup instead of repeating it, for up to {@link #lookupWait} before looking it up themselves.
+ * <p>
+ * A hierarchy may be given a budget, the most looked up classes it holds at once. When it is exceeded the
+ * least recently used tenth of them are evicted and are looked up again if needed, and the interned names
+ * are compacted. {@link #declare Declared} classes may not be found by any lookup, so they are never evicted
+ * and don't count towards the budget, {@link #preload preloaded} ones are treated like any other.
+ */
+public class ClassHierarchy implements HierarchyMetrics.Tracked {
+
+    public static class SuperCache {
+
+        private final ClassHierarchy hierarchy;
+        //The table the ids below are from.
+        private final Names names;
+        @Nullable
+        public final String superclass;
+        private final int superId;
+        private final int[] interfaceIds;
+        //Ids of every super type in ascending order, kept once every super type is resolved and never modified afterwards.
+        @Nullable
+        private volatile int[] ancestors;
+        //Length of the superclass chain up to java.lang.Object, -1 until the chain is resolved.
+        private volatile int depth = -1;
+        //System.nanoTime of the last use, only tracked when the hierarchy has a budget.
+        private long lastUsed;
+        //Declared classes are never evicted.
+        private boolean pinned;
+
+        public SuperCache(@Nonnull ClassHierarchy hierarchy, @Nullable String superclass, @Nonnull Collection<String> interfaces) {
+            this.hierarchy = hierarchy;
+            this.names = hierarchy.names;
+            this.superId = superclass == null ? -1 : names.id(superclass);
+            this.superclass = superclass == null ? null : names.name(superId);
+            this.interfaceIds = new int[interfaces.size()];
+            int i = 0;
+            for (String iface : interfaces) {
+                interfaceIds[i++] = names.id(iface);
+            }
+        }
+
+        /**
+         * @return The interfaces this class directly implements.
+         */
+        public List<String> getInterfaces() {
+            List<String> interfaces = new ArrayList<>(interfaceIds.length);
+            for (int id : interfaceIds) {
+                interfaces.add(names.name(id));
+            }
+            return interfaces;
+        }
+
+        /**
+         * @return The direct super types of this class.
+         */
+        public Set<String> getDirectParents() {
+            Set<String> direct = new HashSet<>(getInterfaces());
+            if (superclass != null) {
+                direct.add(superclass);
+            }
+            return direct;
+        }
+
+        /**
+         * @return Every super type of this class, direct and indirect.
+         */
+        public Set<String> getParents() {
+            int[] ancestors = getAncestors();
+            Set<String> parents = new HashSet<>(ancestors.length * 2);
+            for (int id : ancestors) {
+                parents.add(names.name(id));
+            }
+            return parents;
+        }
+
+        /**
+         * @param id The id of a class, see {@link ClassHierarchy#id}.
+         * @return true if the class is a super type of this class, directly or indirectly.
+         */
+        public boolean extendsId(int id) {
+            int[] ancestors = getAncestors();
+            if (names != hierarchy.names) {
+                Integer own = names.get(hierarchy.name(id));
+                return own != null && Arrays.binarySearch(ancestors, own) >= 0;
+            }
+            return Arrays.binarySearch(ancestors, id) >= 0;
+        }
+
+        /**
+         * The ids of every super type of this class, in ascending order.
+         * No locks are held while parents are looked up, if two threads race they compute the same array.
+         * The array is only kept once every super type is resolved, until then unresolved ones are tried again.
+         *
+         * @return The array, which must not be modified.
+         */
+        int[] getAncestors() {
+            int[] ancestors = this.ancestors;
+            if (ancestors == null) {
+                HierarchyMetrics.INSTANCE.flatten();
+                BitSet flat = new BitSet();
+                boolean complete = true;
+                if (superId != -1) {
+                    complete = addAncestors(flat, superId);
+                }
+                for (int id : interfaceIds) {
+                    complete &= addAncestors(flat, id);
+                }
+                ancestors = flat.stream().toArray();
+                if (complete) {
+                    this.ancestors = ancestors;
+                }
+            }
+            return ancestors;
+        }
+
+        /**
+         * @return If every super type of this class, direct and indirect, is resolved.
+         */
+        boolean isComplete() {
+            if (ancestors == null) {
+                getAncestors();
+            }
+            return ancestors != null;
+        }
+
+        /**
+         * @return The number of superclasses above this class, 0 for java.lang.Object.
+         */
+        public int getDepth() {
+            int depth = this.depth;
+            if (depth == -1) {
+                depth = superclass == null ? 0 : hierarchy.getDepth(superclass) + 1;
+                //A missing superclass may be found later, lengthening the chain.
+                if (isComplete()) {
+                    this.depth = depth;
+                }
+            }
+            return depth;
+        }
+
+        private boolean addAncestors(BitSet flat, int id) {
+            flat.set(id);
+            SuperCache c = hierarchy.declareClass(names.name(id));
+            if (c == null) {
+                return false;
+            }
+            int[] ancestors = c.getAncestors();
+            if (c.names == names) {
+                for (int a : ancestors) {
+                    flat.set(a);
+                }
+            } else {
+                //Resolved after the names were compacted, translate by name.
+                for (int a : ancestors) {
+                    flat.set(names.id(c.names.name(a)));
+                }
+            }
+            return c.isComplete();
+        }
+    }
+
+    /**
+     * The most classes held at once, 0 for no limit.
+     */
+    public final int maxClasses;
+    /**
+     * The most unresolvable names remembered, and how long for in milliseconds, 0 to remember them until cleared.
+     */
+    public final int missingMax = Integer.parseInt(System.getProperty("ccl.asm.hierarchy.missing_max", "4096"));
+    public final long missingTtl = Long.parseLong(System.getProperty("ccl.asm.hierarchy.missing_ttl", "0"));
+    /**
+     * The most type pairs to remember common super classes for, the memo is cleared when full.
+     */
+    public final int commonSuperMax = Integer.parseInt(System.getProperty("ccl.asm.common_super_max", "65536"));
+    /**
+     * How long in milliseconds to wait for another thread's lookup of the same class before looking it up
+     * on the waiting thread instead. Guards against lookup functions that wait on the waiting thread.
+     */
+    public volatile long lookupWait = Long.parseLong(System.getProperty("ccl.asm.hierarchy.lookup_wait", "1000"));
+    /**
+     * Allow falling back to {@link Class#forName(String, boolean, ClassLoader)} for classes whose bytes
+     * can't be found. The class is never initialized, but it is loaded, which may be unsafe while transforming.
+     */
+    public volatile boolean allowReflection = Boolean.parseBoolean(System.getProperty("ccl.asm.hierarchy.reflection", "false"));
+    /**
+     * The ClassLoader class files are read from as resources, after any lookup functions.
+     * Set to null to disable resource lookups.
+     */
+    @Nullable
+    public volatile ClassLoader resourceLoader = ClassHierarchy.class.getClassLoader();
+    /**
+     * Reads JDK classes from the runtime image before any lookup function is tried.
+     * JDK classes found this way are saved along with every other class by {@link #saveIndex}.
+     * Set to null to disable.
+     */
+    @Nullable
+    public volatile Function<String, byte @Nullable []> jdkClasses = JdkClassLookup.instance();
+
+    public final Map<String, SuperCache> superclasses = new ConcurrentHashMap<>();
+    private final List<Function<String, byte @Nullable []>> byteLookups = new CopyOnWriteArrayList<>();
+    //Lookups currently in progress, so concurrent requests for the same class share one.
+    private final Map<String, Lookup> lookups = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile HierarchyIndex index;
+
+    //Names that could not be resolved, to the System.nanoTime they were last tried.
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder missingHits = new LongAdder();
+    private final LongAdder lookupFailures = new LongAdder();
+    private final LongAdder lookupTimeouts = new LongAdder();
+
+    //Every class name seen so far, interned to a dense id. Replaced when names are compacted.
+    private volatile Names names = new Names();
+    //The size of the names after the last compaction.
+    private volatile int compactedNames;
+
+    //Common super classes by type pair.
+    private final Map<TypePair, String> commonSuper = new ConcurrentHashMap<>();
+    private final LongAdder commonSuperHits = new LongAdder();
+    private final LongAdder commonSuperMisses = new LongAdder();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder pinned = new LongAdder();
+
+    public ClassHierarchy() {
+        this(0);
+    }
+
+    /**
+     * @param maxClasses The most classes held at once, 0 for no limit.
+     */
+    public ClassHierarchy(int maxClasses) {
+        this.maxClasses = maxClasses;
+        HierarchyMetrics.INSTANCE.track(this);
+    }
+
+    /**
+     * @return The number of classes currently held.
+     */
+    @Override
+    public int size() {
+        return superclasses.size();
+    }
+
+    /**
+     * A rough estimate of the memory held, counting each class, its super type arrays, and each interned name.
+     *
+     * @return The estimate in bytes.
+     */
+    @Override
+    public long estimateMemory() {
+        long memory = 0;
+        for (SuperCache cache : superclasses.values()) {
+            //Map node, SuperCache and interface array headers.
+            memory += 32 + 48 + 16 + 4L * cache.interfaceIds.length;
+            int[] ancestors = cache.ancestors;
+            if (ancestors != null) {
+                memory += 16 + 4L * ancestors.length;
+            }
+        }
+        Names names = this.names;
+        for (String name : names.ids.keySet()) {
+            //Map node, boxed id, and the String itself.
+            memory += 32 + 16 + 40 + name.length();
+        }
+        return memory + 4L * names.names.length;
+    }
+
+    /**
+     * Add a factory to find class bytes with.
+     *
+     * @param func The function.
+     */
+    public void addByteLookupFunc(Function<String, byte @Nullable []> func) {
+        byteLookups.add(func);
+        clearMissing();
+    }
+
+    /**
+     * @return The ClassLoader class files are read from, {@link #resourceLoader} unless overridden.
+     */
+    @Nullable
+    protected ClassLoader resourceLoader() {
+        return resourceLoader;
+    }
+
+    /**
+     * @return If reflection may be used to resolve classes, {@link #allowReflection} unless overridden.
+     */
+    protected boolean allowReflection() {
+        return allowReflection;
+    }
+
+    /**
+     * Creates the cache for a class, every cache this hierarchy holds is created here.
+     *
+     * @param superclass The super class name, null only for java.lang.Object.
+     * @param interfaces The interface names.
+     * @return The cache.
+     */
+    protected SuperCache newCache(@Nullable String superclass, @Nonnull Collection<String> interfaces) {
+        return new SuperCache(this, superclass, interfaces);
+    }
+
+    /**
+     * Forgets every class that failed to resolve, so they are tried again.
+     * Called automatically by {@link #addByteLookupFunc}, call it after changing {@link #resourceLoader} or {@link #allowReflection}.
+     */
+    public void clearMissing() {
+        missing.clear();
+    }
+
+    /**
+     * Forgets every class, along with every memoized answer.
+     * Interned ids are kept, so ids handed out before stay valid.
+     */
+    public void clear() {
+        superclasses.clear();
+        pinned.reset();
+        missing.clear();
+        commonSuper.clear();
+    }
+
+    /**
+     * Forgets every remembered common super class, needed if classes are redeclared with different super types.
+     */
+    public void clearCommonSuperCache() {
+        commonSuper.clear();
+    }
+
+    /**
+     * @return The number of times a class could not be resolved by any means.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of lookups answered by the cache of unresolvable classes.
+     */
+    public long getMissingHitCount() {
+        return missingHits.sum();
+    }
+
+    /**
+     * @return The number of times a lookup function threw.
+     */
+    public long getLookupFailureCount() {
+        return lookupFailures.sum();
+    }
+
+    /**
+     * @return The number of times a thread stopped waiting for another thread's lookup, see {@link #lookupWait}.
+     */
+    public long getLookupTimeoutCount() {
+        return lookupTimeouts.sum();
+    }
+
+    /**
+     * @return The number of common super class requests answered from the memo.
+     */
+    public long getCommonSuperHits() {
+        return commonSuperHits.sum();
+    }
+
+    /**
+     * @return The number of common super class requests that had to walk the hierarchy.
+     */
+    public long getCommonSuperMisses() {
+        return commonSuperMisses.sum();
+    }
+
+    /**
+     * @return The number of classes evicted to stay within {@link #maxClasses}.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Loads a hierarchy index saved by a previous run with {@link #saveIndex}.
+     * Classes in the index are answered from it before any lookup function is tried.
+     *
+     * @param file        The index file.
+     * @param fingerprint The fingerprint of the current classpath, see {@link HierarchyIndex#classpathFingerprint}.
+     * @return true if the index was loaded, false if it was missing, corrupt or stale.
+     */
+    public boolean loadIndex(@Nonnull Path file, long fingerprint) {
+        HierarchyIndex index = HierarchyIndex.load(file, fingerprint);
+        if (index != null) {
+            this.index = index;
+        }
+        return index != null;
+    }
+
+    /**
+     * Saves every class known so far, including any still unused from a loaded index, for the next run.
+     *
+     * @param file        The index file.
+     * @param fingerprint The fingerprint of the current classpath, see {@link HierarchyIndex#classpathFingerprint}.
+     * @throws IOException If the index could not be written.
+     */
+    public void saveIndex(@Nonnull Path file, long fingerprint) throws IOException {
+        HierarchyIndex.write(file, fingerprint, superclasses, index);
+    }
+
+    /**
+     * @param name       The class in question
+     * @param superclass The class being extended
+     * @return true if clazz extends, either directly or indirectly, superclass.
+     */
+    public boolean classExtends(String name, String superclass) {
+        HierarchyMetrics.INSTANCE.classExtends();
+
+        if (name.equals(superclass)) {
+            return true;
+        }
+
+        SuperCache cache = declareClass(name);
+        if (cache == null)//just can't handle this
+        {
+            return false;
+        }
+
+        //Resolve every super type first, a name still without an id afterwards can't be one of them.
+        int[] ancestors = cache.getAncestors();
+        Integer id = cache.names.get(superclass);
+        return id != null && Arrays.binarySearch(ancestors, id) >= 0;
+    }
+
+    /**
+     * Interns a class name. Ids are dense and start at 0. They are never reused unless the hierarchy has
+     * a budget, in which case eviction may compact the names and start handing out ids from 0 again.
+     *
+     * @param name The class name, using '.' as a separator.
+     * @return The id for the name.
+     */
+    public int id(@Nonnull String name) {
+        return names.id(name);
+    }
+
+    /**
+     * @param id An id returned by {@link #id}.
+     * @return The class name for the id.
+     */
+    public String name(int id) {
+        return names.name(id);
+    }
+
+    @Nullable
+    SuperCache declareClass(String name) {
+        SuperCache cache = superclasses.get(name);
+
+        if (cache != null) {
+            if (maxClasses > 0) {
+                cache.lastUsed = System.nanoTime();
+            }
+            HierarchyMetrics.INSTANCE.cacheHit();
+            return cache;
+        }
+        if (isMissing(name)) {
+            return null;
+        }
+        HierarchyMetrics.INSTANCE.cacheMiss();
+
+        Lookup lookup = new Lookup();
+        Lookup existing = lookups.putIfAbsent(name, lookup);
+        if (existing != null && existing.owner != Thread.currentThread()) {
+            if (existing.await(lookupWait)) {
+                return existing.result;
+            }
+            //Taking too long, the owner may be waiting on this thread. The first cache published still wins.
+            lookupTimeouts.increment();
+            cache = lookup(name);
+            if (cache == null) {
+                markMissing(name);
+            }
+            return cache;
+        }
+
+        //Either we own the lookup, or this is a recursive request for a class we are already looking up.
+        try {
+            cache = superclasses.get(name);
+            if (cache == null) {
+                cache = lookup(name);
+                if (cache == null) {
+                    markMissing(name);
+                }
+            }
+        } finally {
+            if (existing == null) {
+                lookup.complete(cache);
+                lookups.remove(name, lookup);
+            }
+        }
+        return cache;
+    }
+
+    private boolean isMissing(String name) {
+        Long time = missing.get(name);
+        if (time == null) {
+            return false;
+        }
+        if (missingTtl > 0 && System.nanoTime() - time > TimeUnit.MILLISECONDS.toNanos(missingTtl)) {
+            missing.remove(name, time);
+            return false;
+        }
+        missingHits.increment();
+        HierarchyMetrics.INSTANCE.missingHit();
+        return true;
+    }
+
+    private void markMissing(String name) {
+        misses.increment();
+        if (missingMax <= 0) {
+            return;
+        }
+        //Evict arbitrary entries to stay in bounds, a name evicted early is just tried again.
+        Iterator<String> it = missing.keySet().iterator();
+        while (missing.size() >= missingMax && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        missing.put(name, System.nanoTime());
+    }
+
+    private SuperCache lookup(String name) {
+        long start = Metrics.start();
+        HierarchyIndex index = this.index;
+        if (index != null) {
+            SuperCache cache = index.get(this, name);
+            if (cache != null) {
+                return resolved(HierarchyMetrics.Source.INDEX, start, publish(name, cache));
+            }
+        }
+
+        Function<String, byte[]> jdk = jdkClasses;
+        if (jdk != null) {
+            try {
+                byte[] bytes = jdk.apply(name);
+                if (bytes != null) {
+                    return resolved(HierarchyMetrics.Source.JDK, start, declareASM(bytes, false));
+                }
+            } catch (Throwable ignored) {
+                lookupFailures.increment();
+            }
+        }
+
+        for (Function<String, byte[]> func : byteLookups) {
+            try {
+                byte[] bytes = func.apply(name);
+                if (bytes != null) {
+                    return resolved(HierarchyMetrics.Source.LOOKUP_FUNCTION, start, declareASM(bytes, false));
+                }
+            } catch (Throwable ignored) {
+                lookupFailures.increment();
+            }
+        }
+
+        ClassLoader loader = resourceLoader();
+        if (loader != null) {
+            byte[] bytes = readResource(loader, name);
+            if (bytes != null) {
+                return resolved(HierarchyMetrics.Source.RESOURCE, start, declareASM(bytes, false));
+            }
+        }
+
+        if (allowReflection()) {
+            try {
+                SuperCache cache = declareReflection(name, loader != null ? loader : ClassHierarchy.class.getClassLoader());
+                return resolved(HierarchyMetrics.Source.REFLECTION, start, cache);
+            } catch (ClassNotFoundException | LinkageError ignored) {
+            }
+        }
+
+        return resolved(HierarchyMetrics.Source.UNRESOLVED, start, null);
+    }
+
+    private static SuperCache resolved(HierarchyMetrics.Source source, long start, @Nullable SuperCache cache) {
+        HierarchyMetrics.INSTANCE.resolved(source, start);
+        return cache;
+    }
+
+    //Reads a class file without loading the class, only its header is ever parsed.
+    private static byte @Nullable [] readResource(ClassLoader loader, String name) {
+        try (InputStream is = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (is == null) {
+                return null;
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, len);
+            }
+            return bos.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private SuperCache declareReflection(String name, ClassLoader loader) throws ClassNotFoundException {
+        Class<?> aclass = Class.forName(name, false, loader);
+
+        String superclass;
+        if (aclass.isInterface()) {
+            superclass = "java.lang.Object";
+        } else if (name.equals("java.lang.Object")) {
+            superclass = null;
+        } else {
+            superclass = aclass.getSuperclass().getName();
+        }
+
+        List<String> interfaces = new ArrayList<>();
+        for (Class<?> iclass : aclass.getInterfaces()) {
+            interfaces.add(iclass.getName());
+        }
+
+        return publish(name, newCache(superclass, interfaces));
+    }
+
+    private SuperCache declareASM(@Nonnull byte[] bytes, boolean pinned) {
+        ClassReader reader = new ClassReader(bytes);
+        String name = reader.getClassName().replace('/', '.');
+
+        String superName = reader.getSuperName();
+        List<String> interfaces = new ArrayList<>();
+        for (String iclass : reader.getInterfaces()) {
+            interfaces.add(iclass.replace('/', '.'));
+        }
+
+        SuperCache cache = newCache(superName == null ? null : superName.replace('/', '.'), interfaces);
+        cache.pinned = pinned;
+        return publish(name, cache);
+    }
+
+    //The first cache published for a name wins.
+    private SuperCache publish(String name, SuperCache cache) {
+        if (maxClasses > 0) {
+            cache.lastUsed = System.nanoTime();
+        }
+        SuperCache existing = superclasses.putIfAbsent(name, cache);
+        if (existing != null) {
+            return existing;
+        }
+        if (cache.pinned) {
+            pinned.increment();
+        }
+        if (maxClasses > 0) {
+            evict();
+        }
+        return cache;
+    }
+
+    private boolean overBudget() {
+        return superclasses.size() - pinned.sum() > maxClasses;
+    }
+
+    //Drops the least recently used tenth of the unpinned classes, only one thread evicts at a time.
+    //The evicting thread checks again when done, for classes published by threads that skipped evicting meanwhile.
+    private void evict() {
+        boolean evicted = true;
+        while (evicted && overBudget() && evicting.compareAndSet(false, true)) {
+            try {
+                evicted = evictOnce();
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    //Returns if anything was evicted.
+    private boolean evictOnce() {
+        long[] used = superclasses.values().stream().filter(e -> !e.pinned).mapToLong(e -> e.lastUsed).sorted().toArray();
+        int excess = used.length - (maxClasses - maxClasses / 10);
+        if (excess <= 0) {
+            return false;
+        }
+        long cutoff = used[excess - 1];
+        for (Iterator<SuperCache> it = superclasses.values().iterator(); it.hasNext(); ) {
+            SuperCache cache = it.next();
+            if (!cache.pinned && cache.lastUsed <= cutoff) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+        //Both only grow between evictions otherwise, and memoized answers may name evicted classes.
+        missing.clear();
+        commonSuper.clear();
+        if (names.size() > 2 * Math.max(maxClasses, compactedNames)) {
+            compactNames();
+        }
+        return true;
+    }
+
+    //Starts a new name table holding only the names of the remaining classes, each class is rebuilt against it.
+    //Classes already handed out keep the old table, ancestors are translated by name where the two meet.
+    private void compactNames() {
+        this.names = new Names();
+        for (Map.Entry<String, SuperCache> entry : superclasses.entrySet()) {
+            SuperCache old = entry.getValue();
+            SuperCache cache = newCache(old.superclass, old.getInterfaces());
+            cache.lastUsed = old.lastUsed;
+            cache.pinned = old.pinned;
+            superclasses.replace(entry.getKey(), old, cache);
+        }
+        compactedNames = names.size();
+    }
+
+    public void declare(@Nonnull String name, @Nonnull byte[] bytes) {
+        if (!superclasses.containsKey(name)) {
+            long start = Metrics.start();
+            resolved(HierarchyMetrics.Source.DECLARED, start, declareASM(bytes, true));
+        }
+    }
+
+    /**
+     * Declares a class's super types directly. Declared classes are never evicted.
+     *
+     * @param name       The class name, using '.' as a separator.
+     * @param superclass The super class name, null only for java.lang.Object.
+     * @param interfaces The interface names.
+     * @return The cache for the class, which is the existing one if the class was already declared.
+     */
+    @Nonnull
+    public SuperCache declare(@Nonnull String name, @Nullable String superclass, @Nonnull Collection<String> interfaces) {
+        long start = Metrics.start();
+        SuperCache cache = newCache(superclass, interfaces);
+        cache.pinned = true;
+        return resolved(HierarchyMetrics.Source.DECLARED, start, publish(name, cache));
+    }
+
+    /**
+     * Adds a class's super types found ahead of time, see {@link ClasspathIndexer}.
+     * Unlike a declared class it counts towards the budget and may be evicted, so it must be one the lookups can find again.
+     *
+     * @param name       The class name, using '.' as a separator.
+     * @param superclass The super class name, null only for java.lang.Object.
+     * @param interfaces The interface names.
+     * @return The cache for the class, which is the existing one if the class is already known.
+     */
+    @Nonnull
+    public SuperCache preload(@Nonnull String name, @Nullable String superclass, @Nonnull Collection<String> interfaces) {
+        long start = Metrics.start();
+        return resolved(HierarchyMetrics.Source.DECLARED, start, publish(name, newCache(superclass, interfaces)));
+    }
+
+    public String getSuperClass(@Nonnull String name) {
+        HierarchyMetrics.INSTANCE.superClass();
+        SuperCache cache = declareClass(name);
+        if (cache == null || cache.superclass == null) {
+            return "java.lang.Object";
+        }
+
+        return cache.superclass;
+    }
+
+    /**
+     * @param name The class name.
+     * @return The number of superclasses above the class, following {@link #getSuperClass}.
+     */
+    public int getDepth(@Nonnull String name) {
+        SuperCache cache = declareClass(name);
+        if (cache == null) {
+            return name.equals("java.lang.Object") ? 0 : 1;
+        }
+        return cache.getDepth();
+    }
+
+    /**
+     * Finds the closest class both classes extend, by walking their superclass chains from the same depth.
+     * Interfaces are only considered when one class directly extends the other.
+     * Answers are memoized once both classes and every super type of theirs are resolved.
+     *
+     * @param type1 The first class name.
+     * @param type2 The second class name.
+     * @return The common super class, java.lang.Object if there is nothing closer.
+     */
+    public String getCommonSuperClass(@Nonnull String type1, @Nonnull String type2) {
+        TypePair key = new TypePair(type1, type2);
+        String common = commonSuper.get(key);
+        HierarchyMetrics.INSTANCE.commonSuperClass(common != null);
+        if (common != null) {
+            commonSuperHits.increment();
+            return common;
+        }
+        commonSuperMisses.increment();
+
+        common = commonSuperClass(type1, type2);
+        //Unresolved types, or unresolved super types of theirs, may resolve later with a different answer.
+        SuperCache cache1 = superclasses.get(type1);
+        SuperCache cache2 = superclasses.get(type2);
+        if (cache1 != null && cache2 != null && cache1.isComplete() && cache2.isComplete()) {
+            if (commonSuper.size() >= commonSuperMax) {
+                commonSuper.clear();
+            }
+            commonSuper.put(key, common);
+        }
+        return common;
+    }
+
+    private String commonSuperClass(String type1, String type2) {
+        if (classExtends(type2, type1)) {
+            return type1;
+        }
+        if (classExtends(type1, type2)) {
+            return type2;
+        }
+
+        String c = type1;
+        String d = type2;
+        int cDepth = getDepth(c);
+        int dDepth = getDepth(d);
+        for (; cDepth > dDepth; cDepth--) {
+            c = getSuperClass(c);
+        }
+        for (; dDepth > cDepth; dDepth--) {
+            d = getSuperClass(d);
+        }
+        while (!c.equals(d)) {
+            c = getSuperClass(c);
+            d = getSuperClass(d);
+        }
+        return c;
+    }
+
+    //Class names interned to dense ids.
+    static final class Names {
+
+        final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        volatile String[] names = new String[1024];
+
+        int id(String name) {
+            Integer id = ids.get(name);
+            return id != null ? id : intern(name);
+        }
+
+        @Nullable
+        Integer get(String name) {
+            return ids.get(name);
+        }
+
+        String name(int id) {
+            return names[id];
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        private synchronized int intern(String name) {
+            Integer existing = ids.get(name);
+            if (existing != null) {
+                return existing;
+            }
+
+            int id = ids.size();
+            String[] names = this.names;
+            if (id == names.length) {
+                names = Arrays.copyOf(names, id * 2);
+            }
+            names[id] = name;
+            //Publish the name before the id, so anyone who can see the id can see its name.
+            this.names = names;
+            ids.put(name, id);
+            return id;
+        }
+    }
+
+    private static class Lookup {
+
+        final Thread owner = Thread.currentThread();
+        private final CountDownLatch latch = new CountDownLatch(1);
+        @Nullable
+        private volatile SuperCache result;
+
+        void complete(@Nullable SuperCache result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        //Returns if the lookup completed in time, an interrupt gives up waiting.
+        boolean await(long millis) {
+            try {
+                return latch.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static final class TypePair {
+
+        private final String type1;
+        private final String type2;
+        private final int hash;
+
+        TypePair(String type1, String type2) {
+            this.type1 = type1;
+            this.type2 = type2;
+            hash = 31 * type1.hashCode() + type2.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TypePair)) {
+                return false;
+            }
+            TypePair other = (TypePair) obj;
+            return hash == other.hash && type1.equals(other.type1) && type2.equals(other.type2);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,42 +1,79 @@
 package codechicken.asm;
 
 import org.jetbrains.annotations.Nullable;
-import org.objectweb.asm.ClassReader;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
+/**
+ * Static access to the default {@link ClassHierarchy}, used by anything not given its own hierarchy.
+ */
 public class ClassHierarchyManager {
 
-    public static class SuperCache {
+    /**
+     * The caches held by {@link #DEFAULT}, which only creates caches of this type.
+     *
+     * @deprecated Caches are immutable once published, use {@link ClassHierarchy.SuperCache}.
+     */
+    @Deprecated
+    public static class SuperCache extends ClassHierarchy.SuperCache {
+
+        /**
+         * The direct super types of this class, every super type once {@link #flatten flattened}.
+         */
+        public Set<String> parents;
 
-        String superclass;
-        public Set<String> parents = new HashSet<>();
-        private boolean flattened;
+        public SuperCache(@Nonnull ClassHierarchy hierarchy, @Nullable String superclass, @Nonnull Collection<String> interfaces) {
+            super(hierarchy, superclass, interfaces);
+            parents = Collections.synchronizedSet(getDirectParents());
+        }
 
+        /**
+         * Only adds to {@link #parents}, the hierarchy is unaffected.
+         * Use {@link ClassHierarchyManager#declare(String, String, Collection)} to declare super types.
+         */
         public void add(String parent) {
             parents.add(parent);
         }
 
         public void flatten() {
-            if (flattened) {
-                return;
-            }
-
-            for (String s : new ArrayList<>(parents)) {
-                SuperCache c = declareClass(s);
-                if (c != null) {
-                    c.flatten();
-                    parents.addAll(c.parents);
-                }
-            }
-            flattened = true;
+            parents.addAll(getParents());
         }
     }
 
-    public static final HashMap<String, SuperCache> superclasses = new HashMap<>();
-    private static final List<Function<String, byte @Nullable []>> CLASS_BYTE_LOOKUPS = new ArrayList<>(0);
+    /**
+     * The hierarchy used by default, it has no budget.
+     * It reads {@link #allowReflection} and {@link #resourceLoader} from here rather than its own fields.
+     */
+    public static final ClassHierarchy DEFAULT = new DefaultHierarchy();
+
+    /**
+     * Allow falling back to {@link Class#forName(String, boolean, ClassLoader)} for classes whose bytes
+     * can't be found. The class is never initialized, but it is loaded, which may be unsafe while transforming.
+     */
+    public static volatile boolean allowReflection = Boolean.parseBoolean(System.getProperty("ccl.asm.hierarchy.reflection", "false"));
+    /**
+     * The ClassLoader class files are read from as resources, after any lookup functions.
+     * Set to null to disable resource lookups.
+     */
+    @Nullable
+    public static volatile ClassLoader resourceLoader = ClassHierarchyManager.class.getClassLoader();
+
+    /**
+     * A live view of the classes held by {@link #DEFAULT}.
+     */
+    public static final HashMap<String, SuperCache> superclasses = new SuperCacheView(DEFAULT.superclasses);
+
+    /**
+     * The most unresolvable names remembered, and how long for in milliseconds, 0 to remember them until cleared.
+     */
+    public static final int MISSING_MAX = DEFAULT.missingMax;
+    public static final long MISSING_TTL = DEFAULT.missingTtl;
 
     /**
      * Add a factory to find class bytes with.
@@ -44,7 +81,49 @@ public class ClassHierarchyManager {
      * @param func The function.
      */
     public static void addByteLookupFunc(Function<String, byte @Nullable []> func) {
-        CLASS_BYTE_LOOKUPS.add(func);
+        DEFAULT.addByteLookupFunc(func);
+    }
+
+    /**
+     * @see ClassHierarchy#clearMissing
+     */
+    public static void clearMissing() {
+        DEFAULT.clearMissing();
+    }
+
+    /**
+     * @see ClassHierarchy#getMissCount
+     */
+    public static long getMissCount() {
+        return DEFAULT.getMissCount();
+    }
+
+    /**
+     * @see ClassHierarchy#getMissingHitCount
+     */
+    public static long getMissingHitCount() {
+        return DEFAULT.getMissingHitCount();
+    }
+
+    /**
+     * @see ClassHierarchy#getLookupFailureCount
+     */
+    public static long getLookupFailureCount() {
+        return DEFAULT.getLookupFailureCount();
+    }
+
+    /**
+     * @see ClassHierarchy#loadIndex
+     */
+    public static boolean loadIndex(@Nonnull Path file, long fingerprint) {
+        return DEFAULT.loadIndex(file, fingerprint);
+    }
+
+    /**
+     * @see ClassHierarchy#saveIndex
+     */
+    public static void saveIndex(@Nonnull Path file, long fingerprint) throws IOException {
+        DEFAULT.saveIndex(file, fingerprint);
     }
 
     /**
@@ -53,103 +132,214 @@ public class ClassHierarchyManager {
      * @return true if clazz extends, either directly or indirectly, superclass.
      */
     public static boolean classExtends(String name, String superclass) {
+        return DEFAULT.classExtends(name, superclass);
+    }
 
-        if (name.equals(superclass)) {
-            return true;
+    /**
+     * @see ClassHierarchy#id
+     */
+    public static int id(@Nonnull String name) {
+        return DEFAULT.id(name);
+    }
+
+    /**
+     * @see ClassHierarchy#name
+     */
+    public static String name(int id) {
+        return DEFAULT.name(id);
+    }
+
+    public static void declare(@Nonnull String name, @Nonnull byte[] bytes) {
+        DEFAULT.declare(name, bytes);
+    }
+
+    /**
+     * @see ClassHierarchy#declare(String, String, Collection)
+     */
+    @Nonnull
+    public static ClassHierarchy.SuperCache declare(@Nonnull String name, @Nullable String superclass, @Nonnull Collection<String> interfaces) {
+        return DEFAULT.declare(name, superclass, interfaces);
+    }
+
+    /**
+     * @return The class's cache, declaring it with no super types if it can't be found.
+     * @deprecated Caches are immutable once published, use {@link #declare(String, String, Collection)}.
+     */
+    @Deprecated
+    @Nonnull
+    public static SuperCache getOrCreateCache(@Nonnull String name) {
+        ClassHierarchy.SuperCache cache = DEFAULT.declareClass(name);
+        if (cache == null) {
+            cache = DEFAULT.declare(name, null, Collections.emptyList());
         }
+        return (SuperCache) cache;
+    }
 
-        SuperCache cache = declareClass(name);
-        if (cache == null)//just can't handle this
-        {
-            return false;
+    public static String getSuperClass(@Nonnull String name) {
+        return DEFAULT.getSuperClass(name);
+    }
+
+    /**
+     * @see ClassHierarchy#getDepth
+     */
+    public static int getDepth(@Nonnull String name) {
+        return DEFAULT.getDepth(name);
+    }
+
+    /**
+     * @see ClassHierarchy#getCommonSuperClass
+     */
+    public static String getCommonSuperClass(@Nonnull String type1, @Nonnull String type2) {
+        return DEFAULT.getCommonSuperClass(type1, type2);
+    }
+
+    private static class DefaultHierarchy extends ClassHierarchy {
+
+        @Nullable
+        @Override
+        protected ClassLoader resourceLoader() {
+            return resourceLoader;
         }
 
-        cache.flatten();
-        return cache.parents.contains(superclass);
+        @Override
+        protected boolean allowReflection() {
+            return allowReflection;
+        }
+
+        @Override
+        protected ClassHierarchy.SuperCache newCache(@Nullable String superclass, @Nonnull Collection<String> interfaces) {
+            return new ClassHierarchyManager.SuperCache(this, superclass, interfaces);
+        }
     }
 
-    private static SuperCache declareClass(String name) {
-        SuperCache cache = superclasses.get(name);
+    //Keeps superclasses a HashMap, every operation goes to the default hierarchy's map.
+    @SuppressWarnings ("unchecked")
+    private static class SuperCacheView extends HashMap<String, SuperCache> {
 
-        if (cache != null) {
-            return cache;
+        private final Map<String, SuperCache> map;
+
+        SuperCacheView(Map<String, ClassHierarchy.SuperCache> map) {
+            this.map = (Map<String, SuperCache>) (Map<String, ?>) map;
         }
 
-        for (Function<String, byte[]> func : CLASS_BYTE_LOOKUPS) {
-            try {
-                byte[] bytes = func.apply(name);
-                if (bytes != null) {
-                    cache = declareASM(bytes);
-                    break;
-                }
-            } catch(Throwable ignored) {
-            }
+        @Override
+        public int size() {
+            return map.size();
         }
 
-        if (cache != null) {
-            return cache;
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
         }
 
-        try {
-            cache = declareReflection(name);
-        } catch (ClassNotFoundException ignored) {
+        @Override
+        public SuperCache get(Object key) {
+            return map.get(key);
         }
 
-        return cache;
-    }
+        @Override
+        public SuperCache getOrDefault(Object key, SuperCache defaultValue) {
+            return map.getOrDefault(key, defaultValue);
+        }
 
-    private static SuperCache declareReflection(String name) throws ClassNotFoundException {
-        Class<?> aclass = Class.forName(name);
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
 
-        SuperCache cache = getOrCreateCache(name);
-        if (aclass.isInterface()) {
-            cache.superclass = "java.lang.Object";
-        } else if (name.equals("java.lang.Object")) {
-            return cache;
-        } else {
-            cache.superclass = aclass.getSuperclass().getName();
+        @Override
+        public boolean containsValue(Object value) {
+            return map.containsValue(value);
         }
 
-        cache.add(cache.superclass);
-        for (Class<?> iclass : aclass.getInterfaces()) {
-            cache.add(iclass.getName());
+        @Override
+        public SuperCache put(String key, SuperCache value) {
+            return map.put(key, value);
         }
 
-        return cache;
-    }
+        @Override
+        public void putAll(Map<? extends String, ? extends SuperCache> m) {
+            map.putAll(m);
+        }
+
+        @Override
+        public SuperCache putIfAbsent(String key, SuperCache value) {
+            return map.putIfAbsent(key, value);
+        }
 
-    private static SuperCache declareASM(@Nonnull byte[] bytes) {
-        ClassReader reader = new ClassReader(bytes);
-        String name = reader.getClassName();
+        @Override
+        public SuperCache remove(Object key) {
+            return map.remove(key);
+        }
 
-        SuperCache cache = getOrCreateCache(name);
-        cache.superclass = reader.getSuperName().replace('/', '.');
-        cache.add(cache.superclass);
-        for (String iclass : reader.getInterfaces()) {
-            cache.add(iclass.replace('/', '.'));
+        @Override
+        public boolean remove(Object key, Object value) {
+            return map.remove(key, value);
         }
 
-        return cache;
-    }
+        @Override
+        public boolean replace(String key, SuperCache oldValue, SuperCache newValue) {
+            return map.replace(key, oldValue, newValue);
+        }
 
-    public static void declare(@Nonnull String name, @Nonnull byte[] bytes) {
-        if (!superclasses.containsKey(name)) {
-            declareASM(bytes);
+        @Override
+        public SuperCache replace(String key, SuperCache value) {
+            return map.replace(key, value);
         }
-    }
 
-    @Nonnull
-    public static SuperCache getOrCreateCache(@Nonnull String name) {
-        return superclasses.computeIfAbsent(name, k -> new SuperCache());
-    }
+        @Override
+        public void clear() {
+            map.clear();
+        }
 
-    public static String getSuperClass(@Nonnull String name) {
-        SuperCache cache = declareClass(name);
-        if (cache == null) {
-            return "java.lang.Object";
+        @Override
+        public Set<String> keySet() {
+            return map.keySet();
         }
 
-        cache.flatten();
-        return cache.superclass;
+        @Override
+        public Collection<SuperCache> values() {
+            return map.values();
+        }
+
+        @Override
+        public Set<Map.Entry<String, SuperCache>> entrySet() {
+            return map.entrySet();
+        }
+
+        @Override
+        public SuperCache computeIfAbsent(String key, Function<? super String, ? extends SuperCache> mappingFunction) {
+            return map.computeIfAbsent(key, mappingFunction);
+        }
+
+        @Override
+        public SuperCache computeIfPresent(String key, BiFunction<? super String, ? super SuperCache, ? extends SuperCache> remappingFunction) {
+            return map.computeIfPresent(key, remappingFunction);
+        }
+
+        @Override
+        public SuperCache compute(String key, BiFunction<? super String, ? super SuperCache, ? extends SuperCache> remappingFunction) {
+            return map.compute(key, remappingFunction);
+        }
+
+        @Override
+        public SuperCache merge(String key, SuperCache value, BiFunction<? super SuperCache, ? super SuperCache, ? extends SuperCache> remappingFunction) {
+            return map.merge(key, value, remappingFunction);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super String, ? super SuperCache> action) {
+            map.forEach(action);
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super String, ? super SuperCache, ? extends SuperCache> function) {
+            map.replaceAll(function);
+        }
+
+        @Override
+        public Object clone() {
+            return new HashMap<>(map);
+        }
     }
 }
@@ -0,0 +1,221 @@
+package codechicken.asm;
+
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Fills a {@link ClassHierarchy} from jars and directories up front, so classes don't have to be
+ * looked up one at a time while transforming.
+ * <p>
+ * Every class file is read in parallel and only its header, the name, super name and interfaces, is parsed.
+ * Classes are then declared in classpath order, so when a class is found more than once the first one wins,
+ * as it would for a class loader. Multi-release versions and module descriptors are skipped.
+ * <p>
+ * Classes are {@link ClassHierarchy#preload preloaded}, a hierarchy with a budget may evict them and look them up again,
+ * so the indexed paths should also be reachable through its lookups.
+ */
+public class ClasspathIndexer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClasspathIndexer.class);
+
+    /**
+     * Indexes the provided jars and directories into the default hierarchy on the common pool.
+     *
+     * @param paths The jars and directories.
+     * @return The number of classes indexed and the time taken.
+     * @throws IOException If a path could not be read.
+     */
+    public static Result index(@Nonnull Collection<Path> paths) throws IOException {
+        return index(ClassHierarchyManager.DEFAULT, paths, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Indexes the provided jars and directories.
+     *
+     * @param hierarchy The hierarchy to add classes to.
+     * @param paths     The jars and directories.
+     * @param pool      The pool to read and parse classes on.
+     * @return The number of classes indexed and the time taken.
+     * @throws IOException If a path could not be read.
+     */
+    public static Result index(@Nonnull ClassHierarchy hierarchy, @Nonnull Collection<Path> paths, @Nonnull ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        List<ZipFile> zips = new ArrayList<>();
+        try {
+            List<Source> sources = new ArrayList<>();
+            for (Path path : paths) {
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(e -> isClass(path.relativize(e).toString().replace(File.separatorChar, '/')))
+                                .sorted()
+                                .forEach(e -> sources.add(() -> Files.readAllBytes(e)));
+                    }
+                } else if (Files.exists(path)) {
+                    ZipFile zip = new ZipFile(path.toFile());
+                    zips.add(zip);
+                    for (ZipEntry entry : Collections.list(zip.entries())) {
+                        if (isClass(entry.getName())) {
+                            sources.add(() -> {
+                                try (InputStream is = zip.getInputStream(entry)) {
+                                    return readAll(is);
+                                }
+                            });
+                        }
+                    }
+                }
+            }
+
+            //Parallel streams run on the pool they are started from, toArray keeps the classpath order.
+            Header[] headers = pool.submit(() -> sources.parallelStream().map(ClasspathIndexer::read).toArray(Header[]::new)).join();
+            int classes = 0;
+            for (Header header : headers) {
+                if (header != null) {
+                    hierarchy.preload(header.name, header.superclass, header.interfaces);
+                    classes++;
+                }
+            }
+            return new Result(classes, System.nanoTime() - start);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (ZipFile zip : zips) {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Indexes the provided jars and directories into the default hierarchy on a background daemon thread.
+     *
+     * @param paths The jars and directories.
+     * @return A future completed with the result once indexing is finished.
+     */
+    public static CompletableFuture<Result> indexAsync(@Nonnull Collection<Path> paths) {
+        return indexAsync(ClassHierarchyManager.DEFAULT, paths);
+    }
+
+    /**
+     * Indexes the provided jars and directories on a background daemon thread, using the common pool.
+     *
+     * @param hierarchy The hierarchy to add classes to.
+     * @param paths     The jars and directories.
+     * @return A future completed with the result once indexing is finished.
+     */
+    public static CompletableFuture<Result> indexAsync(@Nonnull ClassHierarchy hierarchy, @Nonnull Collection<Path> paths) {
+        List<Path> copy = new ArrayList<>(paths);
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                Result result = index(hierarchy, copy, ForkJoinPool.commonPool());
+                LOGGER.info("Indexed {} from {}.", result, copy.stream().map(Path::toString).collect(Collectors.joining(", ")));
+                future.complete(result);
+            } catch (Throwable e) {
+                LOGGER.error("Failed to index classpath.", e);
+                future.completeExceptionally(e);
+            }
+        }, "ChickenASM Classpath Indexer");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    private static boolean isClass(String name) {
+        return name.endsWith(".class") && !name.startsWith("META-INF/versions/")
+                && !name.equals("module-info.class") && !name.endsWith("/module-info.class");
+    }
+
+    @Nullable
+    private static Header read(Source source) {
+        byte[] bytes;
+        try {
+            bytes = source.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            ClassReader reader = new ClassReader(bytes);
+            String superName = reader.getSuperName();
+            List<String> interfaces = new ArrayList<>();
+            for (String iface : reader.getInterfaces()) {
+                interfaces.add(iface.replace('/', '.'));
+            }
+            return new Header(reader.getClassName().replace('/', '.'), superName == null ? null : superName.replace('/', '.'), interfaces);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Skipping malformed class file.", e);
+            return null;
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = is.read(buf)) != -1) {
+            bos.write(buf, 0, len);
+        }
+        return bos.toByteArray();
+    }
+
+    private interface Source {
+
+        byte[] read() throws IOException;
+    }
+
+    private static class Header {
+
+        final String name;
+        @Nullable
+        final String superclass;
+        final List<String> interfaces;
+
+        Header(String name, @Nullable String superclass, List<String> interfaces) {
+            this.name = name;
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+        }
+    }
+
+    public static class Result {
+
+        /**
+         * The number of class files indexed.
+         */
+        public final int classes;
+        /**
+         * How long indexing took, in nanoseconds.
+         */
+        public final long nanos;
+
+        public Result(int classes, long nanos) {
+            this.classes = classes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return classes + " classes in " + nanos / 1000000 + "ms";
+        }
+    }
+}
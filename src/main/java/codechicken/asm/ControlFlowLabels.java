@@ -0,0 +1,85 @@
+package codechicken.asm;
+
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static org.objectweb.asm.tree.AbstractInsnNode.*;
+
+/**
+ * The labels targeted by jumps and switches in an InsnList, the same set {@link InsnComparator#getControlFlowLabels}
+ * builds. Each label is counted by the instructions targeting it, so edits can keep the set up to date without
+ * scanning the list again, see {@link InsnListSection#trackControlFlowLabels()}.
+ * <p>
+ * Read only through the {@link Set} interface.
+ */
+public class ControlFlowLabels extends AbstractSet<LabelNode> {
+
+    private final Map<LabelNode, Integer> targets = new IdentityHashMap<>();
+
+    public ControlFlowLabels(InsnList list) {
+        for (AbstractInsnNode insn = list.getFirst(); insn != null; insn = insn.getNext()) {
+            added(insn);
+        }
+    }
+
+    /**
+     * Call after insn is added to the list.
+     */
+    public void added(AbstractInsnNode insn) {
+        update(insn, 1);
+    }
+
+    /**
+     * Call before insns are inserted into the list, inserting empties them.
+     */
+    public void added(InsnList insns) {
+        for (AbstractInsnNode insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            added(insn);
+        }
+    }
+
+    /**
+     * Call when insn is removed from the list.
+     */
+    public void removed(AbstractInsnNode insn) {
+        update(insn, -1);
+    }
+
+    private void update(AbstractInsnNode insn, int delta) {
+        switch (insn.getType()) {
+            case JUMP_INSN:
+                count(((JumpInsnNode) insn).label, delta);
+                break;
+            case TABLESWITCH_INSN:
+                TableSwitchInsnNode tsinsn = (TableSwitchInsnNode) insn;
+                count(tsinsn.dflt, delta);
+                tsinsn.labels.forEach(label -> count(label, delta));
+                break;
+            case LOOKUPSWITCH_INSN:
+                LookupSwitchInsnNode lsinsn = (LookupSwitchInsnNode) insn;
+                count(lsinsn.dflt, delta);
+                lsinsn.labels.forEach(label -> count(label, delta));
+                break;
+        }
+    }
+
+    private void count(LabelNode label, int delta) {
+        targets.merge(label, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return targets.containsKey(o);
+    }
+
+    @Override
+    public Iterator<LabelNode> iterator() {
+        return Collections.unmodifiableSet(targets.keySet()).iterator();
+    }
+
+    @Override
+    public int size() {
+        return targets.size();
+    }
+}
@@ -0,0 +1,176 @@
+package codechicken.asm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes debug dumps of transformed classes on a background thread, keeping file IO and
+ * Textifier work off the class loading thread.
+ * <p>
+ * Dumps are queued in a bounded queue, sized by {@code ccl.asm.debug.dump_queue}. When it is full
+ * {@code ccl.asm.debug.dump_policy} decides whether to {@code block} the caller until there is space
+ * (the default) or {@code drop} the dump. On shutdown the writer finishes everything still queued,
+ * it is given {@link #SHUTDOWN_WAIT} milliseconds before the rest is written by the shutdown hook.
+ */
+public class DumpWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DumpWriter.class);
+
+    public static final int QUEUE_SIZE = Integer.parseInt(System.getProperty("ccl.asm.debug.dump_queue", "256"));
+    public static final Policy POLICY = Policy.valueOf(System.getProperty("ccl.asm.debug.dump_policy", "block").toUpperCase(Locale.ROOT));
+    public static final long SHUTDOWN_WAIT = 10000;
+
+    private static DumpWriter instance;
+
+    private final BlockingQueue<Runnable> queue;
+    private final Policy policy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    //Set on shutdown, the writer exits once the queue is empty.
+    private volatile boolean closed;
+
+    public DumpWriter(int queueSize, @Nonnull Policy policy) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.policy = policy;
+
+        thread = new Thread(this::run, "ChickenASM Dump Writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "ChickenASM Dump Writer Shutdown"));
+    }
+
+    /**
+     * @return The shared writer, created on first use from the system properties.
+     */
+    public static synchronized DumpWriter instance() {
+        if (instance == null) {
+            instance = new DumpWriter(QUEUE_SIZE, POLICY);
+        }
+        return instance;
+    }
+
+    /**
+     * Queues the raw class bytes to be written to the provided file.
+     *
+     * @param bytes The class bytes, must not be modified afterwards.
+     * @param file  The file.
+     */
+    public void dumpRaw(@Nonnull byte[] bytes, @Nonnull File file) {
+        submit(() -> {
+            try {
+                Path path = file.toPath();
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                Files.write(path, bytes);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to dump class to file!", e);
+            }
+        });
+    }
+
+    /**
+     * Queues the class bytes to be textified and written to the provided file.
+     *
+     * @param bytes The class bytes, must not be modified afterwards.
+     * @param file  The file.
+     */
+    public void dumpText(@Nonnull byte[] bytes, @Nonnull File file) {
+        submit(() -> ASMHelper.dump(bytes, file, false, false, true));
+    }
+
+    /**
+     * @return The number of dumps dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void submit(Runnable task) {
+        if (closed) {
+            //The writer may already be gone, nothing queued now is guaranteed to be written.
+            write(task);
+            return;
+        }
+        if (policy == Policy.DROP) {
+            if (!queue.offer(task) && dropped.getAndIncrement() == 0) {
+                LOGGER.warn("Dump queue full, dropping dumps. Increase ccl.asm.debug.dump_queue or use ccl.asm.debug.dump_policy=block.");
+            }
+        } else {
+            try {
+                //Waits in steps, the writer may stop while the queue is full.
+                while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        write(task);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                write(task);
+                return;
+            }
+        }
+        //Closed while queueing, the final drain may have already run.
+        if (closed) {
+            drain();
+        }
+    }
+
+    private void run() {
+        while (!closed || !queue.isEmpty()) {
+            Runnable task;
+            try {
+                //Woken regularly while idle to notice shutdown.
+                task = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task != null) {
+                write(task);
+            }
+        }
+    }
+
+    //Lets the writer finish the dump it is on and everything queued, writing whatever it doesn't get to in time here.
+    private void shutdown() {
+        closed = true;
+        try {
+            thread.join(SHUTDOWN_WAIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            write(task);
+        }
+    }
+
+    private static void write(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            LOGGER.warn("Failed to write dump.", e);
+        }
+    }
+
+    public enum Policy {
+        BLOCK,
+        DROP
+    }
+}
@@ -0,0 +1,133 @@
+package codechicken.asm;
+
+import org.objectweb.asm.tree.InsnList;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Accumulates a SHA-256 digest describing a transformer's configuration.
+ * Used to key {@link TransformCache} entries, so anything that changes a transformer's output must be fed in here.
+ */
+public class Fingerprinter {
+
+    private final MessageDigest digest;
+
+    public Fingerprinter() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available.", e);
+        }
+    }
+
+    public Fingerprinter putInt(int i) {
+        digest.update((byte) (i >>> 24));
+        digest.update((byte) (i >>> 16));
+        digest.update((byte) (i >>> 8));
+        digest.update((byte) i);
+        return this;
+    }
+
+    public Fingerprinter putLong(long l) {
+        putInt((int) (l >>> 32));
+        return putInt((int) l);
+    }
+
+    public Fingerprinter putBoolean(boolean b) {
+        digest.update((byte) (b ? 1 : 0));
+        return this;
+    }
+
+    public Fingerprinter putBytes(byte[] bytes) {
+        putInt(bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+    public Fingerprinter putString(@Nullable String s) {
+        if (s == null) {
+            return putInt(-1);
+        }
+        return putBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Fingerprinter putStrings(@Nullable String[] strings) {
+        if (strings == null) {
+            return putInt(-1);
+        }
+        putInt(strings.length);
+        for (String s : strings) {
+            putString(s);
+        }
+        return this;
+    }
+
+    public Fingerprinter putObject(@Nullable Object o) {
+        if (o == null) {
+            return putInt(-1);
+        }
+        putString(o.getClass().getName());
+        return putString(o.toString());
+    }
+
+    public Fingerprinter putMapping(@Nullable ObfMapping mapping) {
+        return putString(mapping == null ? null : mapping.toString());
+    }
+
+    public Fingerprinter putInsns(@Nullable InsnListSection list) {
+        return putString(list == null ? null : list.toString());
+    }
+
+    public Fingerprinter putInsns(@Nullable InsnList list) {
+        return putInsns(list == null ? null : new InsnListSection(list));
+    }
+
+    public Fingerprinter putBlock(@Nullable ASMBlock block) {
+        if (block == null) {
+            return putInt(-1);
+        }
+        putInsns(block.list);
+        //Labels are identified by their position in the block.
+        Map<String, Integer> labels = new TreeMap<>();
+        block.labels.forEach((k, v) -> labels.put(k, block.list.list.indexOf(v)));
+        putInt(labels.size());
+        labels.forEach((k, v) -> putString(k).putInt(v));
+        return this;
+    }
+
+    /**
+     * Puts the name and, when it can be found, the bytecode of the provided class.
+     * Catches changes to the code of a transformer that holds no state of its own.
+     *
+     * @param clazz The class.
+     */
+    public Fingerprinter putClass(Class<?> clazz) {
+        putString(clazz.getName());
+        String res = "/" + clazz.getName().replace('.', '/') + ".class";
+        try (InputStream is = clazz.getResourceAsStream(res)) {
+            if (is != null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int len;
+                while ((len = is.read(buf)) != -1) {
+                    bos.write(buf, 0, len);
+                }
+                putBytes(bos.toByteArray());
+            }
+        } catch (IOException ignored) {
+        }
+        return this;
+    }
+
+    public byte[] finish() {
+        return digest.digest();
+    }
+}
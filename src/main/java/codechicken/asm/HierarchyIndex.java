@@ -0,0 +1,264 @@
+package codechicken.asm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A persistent snapshot of the class hierarchy, used to skip class lookups on the next start.
+ * <p>
+ * The file holds a table of every class and super type name followed by one record per class,
+ * {@code name id, superclass id, interface count, interface ids}, all referencing the name table.
+ * It is stamped with a caller provided classpath fingerprint and discarded when the fingerprint no
+ * longer matches. The file is read into memory and closed, records are only decoded when a class is first asked for.
+ * Nothing keeps the file open or mapped, so it can be replaced by {@link #write} while the index is in use.
+ */
+public class HierarchyIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HierarchyIndex.class);
+
+    private static final int MAGIC = 0x43434849;
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final String[] names;
+    //Class name to the offset of its record.
+    private final Map<String, Integer> records;
+
+    private HierarchyIndex(ByteBuffer buffer, String[] names, Map<String, Integer> records) {
+        this.buffer = buffer;
+        this.names = names;
+        this.records = records;
+    }
+
+    /**
+     * Loads an index from disk.
+     *
+     * @param file        The index file.
+     * @param fingerprint The fingerprint of the current classpath.
+     * @return The index, or null if the file is missing, corrupt, or was written for a different classpath.
+     */
+    @Nullable
+    public static HierarchyIndex load(@Nonnull Path file, long fingerprint) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                LOGGER.warn("Ignoring hierarchy index {}, unknown format.", file);
+                return null;
+            }
+            if (buf.getLong() != fingerprint) {
+                LOGGER.debug("Ignoring hierarchy index {}, classpath has changed.", file);
+                return null;
+            }
+
+            String[] names = new String[buf.getInt()];
+            for (int i = 0; i < names.length; i++) {
+                byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+                buf.get(bytes);
+                names[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int count = buf.getInt();
+            Map<String, Integer> records = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                int pos = buf.position();
+                String name = names[buf.getInt()];
+                buf.getInt();
+                int interfaces = buf.getInt();
+                buf.position(buf.position() + interfaces * 4);
+                records.put(name, pos);
+            }
+            return new HierarchyIndex(buf, names, records);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Ignoring hierarchy index {}, failed to read.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes an index to disk, replacing any existing file.
+     *
+     * @param file        The index file.
+     * @param fingerprint The fingerprint of the current classpath.
+     * @param classes     The classes to write.
+     * @param previous    An index whose classes should be carried over if not present in classes.
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(@Nonnull Path file, long fingerprint, @Nonnull Map<String, ClassHierarchy.SuperCache> classes, @Nullable HierarchyIndex previous) throws IOException {
+        Map<String, Record> all = new TreeMap<>();
+        for (Map.Entry<String, ClassHierarchy.SuperCache> entry : classes.entrySet()) {
+            all.put(entry.getKey(), new Record(entry.getValue().superclass, entry.getValue().getInterfaces()));
+        }
+        if (previous != null) {
+            for (String name : previous.records.keySet()) {
+                if (!all.containsKey(name)) {
+                    all.put(name, previous.read(name));
+                }
+            }
+        }
+
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (Map.Entry<String, Record> entry : all.entrySet()) {
+            intern(ids, entry.getKey());
+            intern(ids, entry.getValue().superclass);
+            for (String iface : entry.getValue().interfaces) {
+                intern(ids, iface);
+            }
+        }
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(fingerprint);
+            dos.writeInt(ids.size());
+            for (String name : ids.keySet()) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                dos.writeShort(bytes.length);
+                dos.write(bytes);
+            }
+            dos.writeInt(all.size());
+            for (Map.Entry<String, Record> entry : all.entrySet()) {
+                Record record = entry.getValue();
+                dos.writeInt(ids.get(entry.getKey()));
+                dos.writeInt(record.superclass == null ? -1 : ids.get(record.superclass));
+                dos.writeInt(record.interfaces.size());
+                for (String iface : record.interfaces) {
+                    dos.writeInt(ids.get(iface));
+                }
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Computes a fingerprint for a classpath from the path, size and modification time of each entry.
+     * Directories are walked, every class file in them counts as an entry.
+     *
+     * @param classpath The classpath entries, in order.
+     * @return The fingerprint.
+     */
+    public static long classpathFingerprint(@Nonnull Collection<Path> classpath) {
+        long hash = 1125899906842597L;
+        for (Path path : classpath) {
+            hash = 31 * hash + path.toAbsolutePath().toString().hashCode();
+            if (Files.isDirectory(path)) {
+                hash = 31 * hash + directoryFingerprint(path);
+            } else {
+                File file = path.toFile();
+                hash = 31 * hash + file.length();
+                hash = 31 * hash + file.lastModified();
+            }
+        }
+        return hash;
+    }
+
+    //A directory's own size and modification time don't change with its contents.
+    private static long directoryFingerprint(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            //Summed, so the order files are walked in doesn't matter.
+            return files.filter(e -> e.toString().endsWith(".class")).mapToLong(e -> {
+                File file = e.toFile();
+                long hash = dir.relativize(e).toString().hashCode();
+                hash = 31 * hash + file.length();
+                return 31 * hash + file.lastModified();
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Failed to fingerprint {}, the hierarchy index will not be reused.", dir, e);
+            return System.nanoTime();
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the JVM's classpath and Java version.
+     *
+     * @return The fingerprint.
+     */
+    public static long classpathFingerprint() {
+        List<Path> paths = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                paths.add(Paths.get(entry));
+            }
+        }
+        return 31 * classpathFingerprint(paths) + System.getProperty("java.version", "").hashCode();
+    }
+
+    /**
+     * @param hierarchy The hierarchy the class is being resolved for.
+     * @param name      The class name.
+     * @return The class's super types, or null if the class is not in this index.
+     */
+    @Nullable
+    public ClassHierarchy.SuperCache get(@Nonnull ClassHierarchy hierarchy, @Nonnull String name) {
+        Record record = read(name);
+        return record == null ? null : hierarchy.newCache(record.superclass, record.interfaces);
+    }
+
+    @Nullable
+    private Record read(String name) {
+        Integer pos = records.get(name);
+        if (pos == null) {
+            return null;
+        }
+
+        //Absolute reads only, the buffer is shared between threads.
+        int superId = buffer.getInt(pos + 4);
+        int count = buffer.getInt(pos + 8);
+        List<String> interfaces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            interfaces.add(names[buffer.getInt(pos + 12 + i * 4)]);
+        }
+        return new Record(superId == -1 ? null : names[superId], interfaces);
+    }
+
+    /**
+     * @return The number of classes in this index.
+     */
+    public int size() {
+        return records.size();
+    }
+
+    private static class Record {
+
+        @Nullable
+        final String superclass;
+        final List<String> interfaces;
+
+        Record(@Nullable String superclass, List<String> interfaces) {
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+        }
+    }
+
+    private static void intern(Map<String, Integer> ids, @Nullable String name) {
+        if (name != null) {
+            ids.putIfAbsent(name, ids.size());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package codechicken.asm;
 
+import codechicken.asm.metrics.TransformMetrics;
 import org.objectweb.asm.tree.*;
 
 import java.util.*;
@@ -73,7 +74,14 @@ public class InsnComparator {
         }
     }
 
+    /**
+     * @return The labels targeted anywhere in the section's list, shared if the section tracks them, see
+     * {@link InsnListSection#trackControlFlowLabels()}.
+     */
     public static Set<LabelNode> getControlFlowLabels(InsnListSection list) {
+        if (list.controlFlowLabels != null) {
+            return list.controlFlowLabels;
+        }
         return getControlFlowLabels(list.list);
     }
 
@@ -123,17 +131,20 @@ public class InsnComparator {
         return importantNodeList;
     }
 
+    /**
+     * Finds every non-overlapping occurrence of needle in haystack, ignoring unimportant instructions.
+     * Runs in time linear in the size of haystack, see {@link InsnMatcher}.
+     */
     public static List<InsnListSection> find(InsnListSection haystack, InsnListSection needle) {
-        Set<LabelNode> controlFlowLabels = getControlFlowLabels(haystack);
-        LinkedList<InsnListSection> list = new LinkedList<>();
-        for (int start = 0; start <= haystack.size() - needle.size(); start++) {
-            InsnListSection section = matches(haystack.drop(start), needle, controlFlowLabels);
-            if (section != null) {
-                list.add(section);
-                start = section.end - 1;
-            }
-        }
+        return find(haystack, new InsnMatcher(needle));
+    }
 
+    /**
+     * Like {@link #find(InsnListSection, InsnListSection)} with a needle compiled ahead of time.
+     */
+    public static List<InsnListSection> find(InsnListSection haystack, InsnMatcher matcher) {
+        List<InsnListSection> list = matcher.find(haystack, getControlFlowLabels(haystack));
+        TransformMetrics.INSTANCE.needleSearch(list.size());
         return list;
     }
 
@@ -141,24 +152,47 @@ public class InsnComparator {
         return find(new InsnListSection(haystack), needle);
     }
 
+    /**
+     * Finds every non-overlapping occurrence of each needle in haystack with a single pass, ignoring unimportant
+     * instructions. Occurrences of different needles may overlap.
+     *
+     * @return The occurrences of each needle, in the order of needles.
+     */
+    public static List<List<InsnListSection>> findAll(InsnListSection haystack, List<InsnListSection> needles) {
+        return findAll(haystack, new InsnMatcher(needles));
+    }
+
+    /**
+     * Like {@link #findAll(InsnListSection, List)} with needles compiled ahead of time.
+     */
+    public static List<List<InsnListSection>> findAll(InsnListSection haystack, InsnMatcher matcher) {
+        List<List<InsnListSection>> lists = matcher.findAll(haystack, getControlFlowLabels(haystack));
+        for (List<InsnListSection> list : lists) {
+            TransformMetrics.INSTANCE.needleSearch(list.size());
+        }
+        return lists;
+    }
+
     public static InsnListSection matches(InsnListSection haystack, InsnListSection needle, Set<LabelNode> controlFlowLabels) {
         int h = 0, n = 0;
-        for (; h < haystack.size() && n < needle.size(); h++) {
-            AbstractInsnNode insn = haystack.get(h);
+        AbstractInsnNode insn = haystack.getFirst(), last = null;
+        AbstractInsnNode ninsn = needle.getFirst();
+        for (; h < haystack.size() && n < needle.size(); h++, last = insn, insn = insn.getNext()) {
             if (!insnImportant(insn, controlFlowLabels)) {
                 continue;
             }
 
-            if (!insnEqual(haystack.get(h), needle.get(n))) {
+            if (!insnEqual(insn, ninsn)) {
                 return null;
             }
             n++;
+            ninsn = ninsn.getNext();
         }
         if (n != needle.size()) {
             return null;
         }
 
-        return haystack.take(h);
+        return h == 0 ? haystack.take(0) : new InsnListSection(haystack.list, haystack.getFirst(), last, haystack.start, haystack.start + h, haystack.controlFlowLabels);
     }
 
     public static InsnListSection findOnce(InsnListSection haystack, InsnListSection needle) {
@@ -186,4 +220,16 @@ public class InsnComparator {
     public static List<InsnListSection> findN(InsnList haystack, InsnListSection needle) {
         return findN(new InsnListSection(haystack), needle);
     }
+
+    /**
+     * Like {@link #findN(InsnListSection, InsnListSection)} with a needle compiled ahead of time.
+     */
+    public static List<InsnListSection> findN(InsnListSection haystack, InsnMatcher matcher) {
+        List<InsnListSection> list = find(haystack, matcher);
+        if (list.isEmpty()) {
+            throw new RuntimeException("Needle not found in Haystack:\n" + haystack + "\n\n" + matcher.needles.get(0));
+        }
+
+        return list;
+    }
 }
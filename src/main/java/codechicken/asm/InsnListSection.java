@@ -5,37 +5,76 @@ import org.objectweb.asm.tree.*;
 import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceMethodVisitor;
 
+import javax.annotation.Nullable;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.*;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import static org.objectweb.asm.tree.AbstractInsnNode.*;
 
 /**
- * A section of an InsnList, may become invalid if the insn list is modified
+ * A section of an InsnList, anchored on its first and last instructions.
+ * Edits outside the section leave it valid, every operation moves along the node links so
+ * the list's index cache is never rebuilt.
+ * <p>
+ * {@link #start} and {@link #end} are the indices the section had when it was created, moved along by edits made
+ * through the section. They are not updated by edits made through anything else.
+ * <p>
+ * A section can carry the {@link ControlFlowLabels} of its list, see {@link #trackControlFlowLabels()}.
  */
 public class InsnListSection implements Iterable<AbstractInsnNode> {
 
     public InsnList list;
     public int start;
     public int end;
+    //The instructions of the section, null if it is empty.
+    @Nullable
+    private AbstractInsnNode first;
+    @Nullable
+    private AbstractInsnNode last;
+    //Where an empty section sits, after this node or at the start of the list if null.
+    @Nullable
+    private AbstractInsnNode prev;
+    private int size;
+    //Shared by every section of the list derived from this one, null if untracked.
+    @Nullable
+    ControlFlowLabels controlFlowLabels;
 
     public InsnListSection(InsnList list, int start, int end) {
         this.list = list;
         this.start = start;
         this.end = end;
+        size = end - start;
+        if (size > 0) {
+            first = list.get(start);
+            last = list.get(end - 1);
+        } else {
+            prev = start > 0 ? list.get(start - 1) : null;
+        }
     }
 
     public InsnListSection(InsnList list, AbstractInsnNode first, AbstractInsnNode last) {
-        this(list, list.indexOf(first), list.indexOf(last) + 1);
+        this(list, first, last, list.indexOf(first), list.indexOf(last) + 1, null);
+    }
+
+    //For callers that already know the indices of first and last.
+    InsnListSection(InsnList list, AbstractInsnNode first, AbstractInsnNode last, int start, int end, @Nullable ControlFlowLabels controlFlowLabels) {
+        this.list = list;
+        this.controlFlowLabels = controlFlowLabels;
+        this.first = first;
+        this.last = last;
+        this.start = start;
+        this.end = end;
+        size = end - start;
     }
 
     public InsnListSection(InsnList list) {
-        this(list, 0, list.size());
+        this.list = list;
+        start = 0;
+        end = size = list.size();
+        first = list.getFirst();
+        last = list.getLast();
     }
 
     public InsnListSection() {
@@ -48,78 +87,195 @@ public class InsnListSection implements Iterable<AbstractInsnNode> {
         }
     }
 
+    /**
+     * Computes the {@link ControlFlowLabels} of the list once and shares them with every section derived from this one,
+     * searches and {@link ASMBlock#applyLabels} then reuse them instead of scanning the list again.
+     * Edits made through these sections keep the labels up to date, the list must not be edited any other way
+     * while they are in use.
+     *
+     * @return this
+     */
+    public InsnListSection trackControlFlowLabels() {
+        if (controlFlowLabels == null) {
+            controlFlowLabels = new ControlFlowLabels(list);
+        }
+        return this;
+    }
+
     public AbstractInsnNode getFirst() {
-        return size() == 0 ? null : list.get(start);
+        return first;
     }
 
     public AbstractInsnNode getLast() {
-        return size() == 0 ? null : list.get(end - 1);
+        return last;
     }
 
     public int size() {
-        return end - start;
+        return size;
     }
 
+    /**
+     * Walks i instructions from the start of the section, prefer iterating when visiting every instruction.
+     */
     public AbstractInsnNode get(int i) {
-        return list.get(start + i);
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        AbstractInsnNode insn = first;
+        for (; i > 0; i--) {
+            insn = insn.getNext();
+        }
+        return insn;
     }
 
     public void set(int i, AbstractInsnNode insn) {
-        list.set(get(i), insn);
+        replace(get(i), insn);
     }
 
     public void remove(int i) {
-        list.remove(get(i));
+        remove(get(i));
+    }
+
+    private void remove(AbstractInsnNode insn) {
+        if (size == 1) {
+            prev = insn.getPrevious();
+            first = last = null;
+        } else if (insn == first) {
+            first = insn.getNext();
+        } else if (insn == last) {
+            last = insn.getPrevious();
+        }
+        list.remove(insn);
+        if (controlFlowLabels != null) {
+            controlFlowLabels.removed(insn);
+        }
+        size--;
         end--;
     }
 
     public void replace(AbstractInsnNode location, AbstractInsnNode insn) {
         list.set(location, insn);
+        if (controlFlowLabels != null) {
+            controlFlowLabels.removed(location);
+            controlFlowLabels.added(insn);
+        }
+        if (location == first) {
+            first = insn;
+        }
+        if (location == last) {
+            last = insn;
+        }
     }
 
     public void add(AbstractInsnNode insn) {
         list.add(insn);
+        if (controlFlowLabels != null) {
+            controlFlowLabels.added(insn);
+        }
+        if (size == 0) {
+            first = insn;
+        }
+        last = insn;
+        size++;
         end++;
     }
 
     public void insertBefore(InsnList insns) {
         int s = insns.size();
-        if (this.list.size() == 0) {
-            list.insert(insns);
-        } else {
-            list.insertBefore(list.get(start), insns);
+        if (controlFlowLabels != null) {
+            controlFlowLabels.added(insns);
+        }
+        if (first != null) {
+            list.insertBefore(first, insns);
+        } else if (s > 0) {
+            //The section stays after the inserted instructions.
+            AbstractInsnNode newPrev = insns.getLast();
+            insertEmpty(insns);
+            prev = newPrev;
         }
         start += s;
         end += s;
     }
 
     public void insert(InsnList insns) {
-        if (end == 0) {
-            list.insert(insns);
+        if (controlFlowLabels != null) {
+            controlFlowLabels.added(insns);
+        }
+        if (last != null) {
+            list.insert(last, insns);
         } else {
-            list.insert(list.get(end - 1), insns);
+            insertEmpty(insns);
+        }
+    }
+
+    //Inserts where this empty section sits.
+    private void insertEmpty(InsnList insns) {
+        if (prev != null) {
+            list.insert(prev, insns);
+        } else {
+            list.insert(insns);
         }
     }
 
     public void replace(InsnList insns) {
         int s = insns.size();
+        AbstractInsnNode newFirst = insns.getFirst();
+        AbstractInsnNode newLast = insns.getLast();
         remove();
         insert(insns);
+        if (s > 0) {
+            first = newFirst;
+            last = newLast;
+        }
+        size = s;
         end = start + s;
     }
 
     public void remove() {
-        while (end != start) {
-            remove(0);
+        while (size != 0) {
+            remove(first);
         }
     }
 
+    /**
+     * Moves the end of the section to last, an empty section grows forwards from where it sits.
+     *
+     * @throws IllegalArgumentException If last is before the start of the section.
+     */
     public void setLast(AbstractInsnNode last) {
-        end = list.indexOf(last) + 1;
+        AbstractInsnNode first = size > 0 ? this.first : prev != null ? prev.getNext() : list.getFirst();
+        size = count(first, last);
+        this.first = first;
+        this.last = last;
+        end = start + size;
     }
 
+    /**
+     * Moves the start of the section to first, an empty section grows backwards from where it sits.
+     *
+     * @throws IllegalArgumentException If first is after the end of the section.
+     */
     public void setFirst(AbstractInsnNode first) {
-        start = list.indexOf(first);
+        AbstractInsnNode last = size > 0 ? this.last : prev;
+        size = count(first, last);
+        this.first = first;
+        this.last = last;
+        start = end - size;
+    }
+
+    //Instructions from first to last inclusive.
+    private static int count(@Nullable AbstractInsnNode first, @Nullable AbstractInsnNode last) {
+        if (last == null) {
+            throw new IllegalArgumentException("Section would end before it starts");
+        }
+        int n = 1;
+        for (AbstractInsnNode insn = first; insn != last; insn = insn.getNext()) {
+            if (insn == null) {
+                throw new IllegalArgumentException("Section would end before it starts");
+            }
+            n++;
+        }
+        return n;
     }
 
     public InsnListSection drop(int n) {
@@ -131,7 +287,20 @@ public class InsnListSection implements Iterable<AbstractInsnNode> {
     }
 
     public InsnListSection slice(int start, int end) {
-        return new InsnListSection(list, this.start + start, this.start + end);
+        if (start < 0 || end > size || start > end) {
+            throw new IndexOutOfBoundsException("Slice: " + start + " - " + end + ", Size: " + size);
+        }
+        if (start == end) {
+            InsnListSection slice = new InsnListSection(list, null, null, this.start + start, this.start + end, controlFlowLabels);
+            slice.prev = start == 0 ? first != null ? first.getPrevious() : prev : get(start - 1);
+            return slice;
+        }
+        AbstractInsnNode sliceFirst = get(start);
+        AbstractInsnNode sliceLast = sliceFirst;
+        for (int i = start + 1; i < end; i++) {
+            sliceLast = sliceLast.getNext();
+        }
+        return new InsnListSection(list, sliceFirst, sliceLast, this.start + start, this.start + end, controlFlowLabels);
     }
 
     /**
@@ -140,11 +309,23 @@ public class InsnListSection implements Iterable<AbstractInsnNode> {
      * @return this
      */
     public InsnListSection trim(Set<LabelNode> controlFlowLabels) {
-        while (start < end && !InsnComparator.insnImportant(getFirst(), controlFlowLabels)) {
+        while (size > 0 && !InsnComparator.insnImportant(first, controlFlowLabels)) {
+            if (--size == 0) {
+                prev = first;
+                first = last = null;
+            } else {
+                first = first.getNext();
+            }
             start++;
         }
 
-        while (start < end && !InsnComparator.insnImportant(getLast(), controlFlowLabels)) {
+        while (size > 0 && !InsnComparator.insnImportant(last, controlFlowLabels)) {
+            if (--size == 0) {
+                prev = last.getPrevious();
+                first = last = null;
+            } else {
+                last = last.getPrevious();
+            }
             end--;
         }
 
@@ -240,6 +421,9 @@ public class InsnListSection implements Iterable<AbstractInsnNode> {
     private class InsnListSectionIterator implements Iterator<AbstractInsnNode> {
 
         int i = 0;
+        //The instruction next() returns, then the one it returned.
+        AbstractInsnNode next = first;
+        AbstractInsnNode current;
 
         @Override
         public boolean hasNext() {
@@ -248,12 +432,23 @@ public class InsnListSection implements Iterable<AbstractInsnNode> {
 
         @Override
         public AbstractInsnNode next() {
-            return get(i++);
+            if (i >= size()) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = next.getNext();
+            i++;
+            return current;
         }
 
         @Override
         public void remove() {
-            InsnListSection.this.remove(--i);
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            InsnListSection.this.remove(current);
+            current = null;
+            i--;
         }
     }
 }
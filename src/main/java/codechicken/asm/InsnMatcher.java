@@ -0,0 +1,372 @@
+package codechicken.asm;
+
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static org.objectweb.asm.tree.AbstractInsnNode.*;
+
+/**
+ * Needles compiled for linear time searching, giving the same matches as {@link InsnComparator#matches} tried
+ * at every offset.
+ * <p>
+ * Needle positions are grouped by opcode, then by the operand {@link InsnComparator#insnEqual} compares,
+ * so each haystack instruction is turned into the set of needle positions it could match with one lookup.
+ * Int operands are found by scanning a small array, member references by name then by interned owner and desc,
+ * which are compared by reference before equals.
+ * Those sets drive a bit-parallel Shift-And automaton over the important instructions of the haystack.
+ * Wildcards on either side, {@code -1} vars and operands, {@code *} types and null constants, match every
+ * position with the same opcode.
+ * <p>
+ * Several needles are laid end to end in the same automaton, so they are all searched for in one pass.
+ * A matcher is immutable, compile needles once and reuse it, see {@link codechicken.asm.transformers.NeedleTransformer#getMatcher}.
+ */
+public class InsnMatcher {
+
+    public final List<InsnListSection> needles;
+    //First bit and length of each needle.
+    private final int[] offsets;
+    private final int[] sizes;
+    //The needle owning each bit.
+    private final int[] owners;
+    private final int words;
+    //The first and last bit of every non-empty needle.
+    private final long[] starts;
+    private final long[] ends;
+    //Indexed by opcode + 1, so labels, line numbers and frames sit at 0.
+    private final OpcodeTable[] tables = new OpcodeTable[257];
+
+    public InsnMatcher(InsnListSection needle) {
+        this(Collections.singletonList(needle));
+    }
+
+    public InsnMatcher(List<InsnListSection> needles) {
+        this.needles = needles;
+        offsets = new int[needles.size()];
+        sizes = new int[needles.size()];
+        int total = 0;
+        for (int j = 0; j < needles.size(); j++) {
+            offsets[j] = total;
+            sizes[j] = needles.get(j).size();
+            total += sizes[j];
+        }
+        owners = new int[total];
+        words = Math.max(1, (total + 63) >>> 6);
+        starts = new long[words];
+        ends = new long[words];
+
+        int i = 0;
+        for (int j = 0; j < needles.size(); j++) {
+            if (sizes[j] == 0) {
+                continue;
+            }
+            set(starts, i);
+            set(ends, i + sizes[j] - 1);
+            for (AbstractInsnNode insn : needles.get(j)) {
+                owners[i] = j;
+                int op = insn.getOpcode();
+                OpcodeTable table = tables[op + 1];
+                if (table == null) {
+                    tables[op + 1] = table = new OpcodeTable(words);
+                }
+                set(table.all, i);
+                set(op == -1 ? table.any : table.compile(insn, words), i);
+                i++;
+            }
+        }
+        for (OpcodeTable table : tables) {
+            if (table != null) {
+                table.finish();
+            }
+        }
+    }
+
+    /**
+     * Finds every non-overlapping occurrence of the first needle, leftmost first.
+     *
+     * @see #findAll
+     */
+    public List<InsnListSection> find(InsnListSection haystack, Set<LabelNode> controlFlowLabels) {
+        return findAll(haystack, controlFlowLabels).get(0);
+    }
+
+    /**
+     * Finds every non-overlapping occurrence of each needle, leftmost first.
+     * Each needle is matched independently, occurrences of different needles may overlap.
+     *
+     * @param haystack          The instructions to search.
+     * @param controlFlowLabels The labels which are important, see {@link InsnComparator#getControlFlowLabels}.
+     * @return The sections matched by each needle, in the order of {@link #needles}. Each section starts after
+     * the previous match of that needle or important instruction and ends on the last instruction matched.
+     */
+    public List<List<InsnListSection>> findAll(InsnListSection haystack, Set<LabelNode> controlFlowLabels) {
+        List<List<InsnListSection>> found = new ArrayList<>(needles.size());
+        for (int j = 0; j < needles.size(); j++) {
+            found.add(new ArrayList<>());
+        }
+        int n = haystack.size();
+        if (owners.length == 0 || n == 0) {
+            return found;
+        }
+
+        //Relative indices of the important instructions seen so far.
+        int[] important = new int[n];
+        int count = 0;
+        //Where each needle may next start, and the furthest of those.
+        int[] from = new int[needles.size()];
+        int maxFrom = 0;
+        long[] state = new long[words];
+        AbstractInsnNode insn = haystack.getFirst();
+        for (int i = 0; i < n; i++, insn = insn.getNext()) {
+            if (!InsnComparator.insnImportant(insn, controlFlowLabels)) {
+                continue;
+            }
+            important[count++] = i;
+
+            if (!step(state, mask(insn))) {
+                continue;
+            }
+            if (i < maxFrom) {
+                //Needles still inside their last match may not start yet.
+                for (int j = 0; j < from.length; j++) {
+                    if (i < from[j]) {
+                        clear(state, offsets[j], sizes[j]);
+                    }
+                }
+            }
+
+            for (int w = 0; w < words; w++) {
+                long hits = state[w] & ends[w];
+                while (hits != 0) {
+                    int j = owners[(w << 6) + Long.numberOfTrailingZeros(hits)];
+                    hits &= hits - 1;
+
+                    //The same start as the first offset InsnComparator.matches would succeed from.
+                    int prev = count - 1 - sizes[j];
+                    int start = Math.max(from[j], prev >= 0 ? important[prev] + 1 : 0);
+                    AbstractInsnNode first = insn;
+                    for (int k = i; k > start; k--) {
+                        first = first.getPrevious();
+                    }
+                    InsnListSection section = new InsnListSection(haystack.list, first, insn, haystack.start + start, haystack.start + i + 1, haystack.controlFlowLabels);
+                    found.get(j).add(section);
+                    //Resumes from the absolute end of the match, as the offset loop this replaces always has.
+                    from[j] = section.end;
+                    maxFrom = Math.max(maxFrom, from[j]);
+                    clear(state, offsets[j], sizes[j]);
+                }
+            }
+        }
+        return found;
+    }
+
+    //Advances the automaton by one instruction, returns false if no position is still alive.
+    private boolean step(long[] state, long[] mask) {
+        if (mask == null) {
+            Arrays.fill(state, 0);
+            return false;
+        }
+        if (words == 1) {
+            state[0] = ((state[0] << 1) | starts[0]) & mask[0];
+            return state[0] != 0;
+        }
+
+        long alive = 0;
+        for (int w = words - 1; w > 0; w--) {
+            state[w] = ((state[w] << 1) | (state[w - 1] >>> 63) | starts[w]) & mask[w];
+            alive |= state[w];
+        }
+        state[0] = ((state[0] << 1) | starts[0]) & mask[0];
+        return (alive | state[0]) != 0;
+    }
+
+    //The needle positions the instruction can match, null for none.
+    private long[] mask(AbstractInsnNode insn) {
+        int op = insn.getOpcode();
+        OpcodeTable table = tables[op + 1];
+        if (table == null) {
+            return null;
+        }
+        if (op == -1 || !table.operands) {
+            return table.all;
+        }
+
+        switch (insn.getType()) {
+            case VAR_INSN:
+                int var = ((VarInsnNode) insn).var;
+                return var == -1 ? table.all : table.value(var);
+            case INT_INSN:
+                int operand = ((IntInsnNode) insn).operand;
+                return operand == -1 ? table.all : table.value(operand);
+            case IINC_INSN:
+                IincInsnNode iinsn = (IincInsnNode) insn;
+                return table.value(iinc(iinsn));
+            case TYPE_INSN:
+                String desc = ((TypeInsnNode) insn).desc;
+                return desc.equals("*") ? table.all : table.exact.getOrDefault(desc, table.any);
+            case LDC_INSN:
+                Object cst = ((LdcInsnNode) insn).cst;
+                return cst == null ? table.all : table.exact.getOrDefault(cst, table.any);
+            case FIELD_INSN:
+                FieldInsnNode finsn = (FieldInsnNode) insn;
+                return table.member(finsn.owner, finsn.name, finsn.desc);
+            case METHOD_INSN:
+                MethodInsnNode minsn = (MethodInsnNode) insn;
+                return table.member(minsn.owner, minsn.name, minsn.desc);
+            default:
+                return table.all;
+        }
+    }
+
+    private static long iinc(IincInsnNode insn) {
+        return ((long) insn.var << 32) | (insn.incr & 0xFFFFFFFFL);
+    }
+
+    private static void set(long[] mask, int i) {
+        mask[i >>> 6] |= 1L << (i & 63);
+    }
+
+    //Clears len bits from off.
+    private static void clear(long[] state, int off, int len) {
+        for (int i = off, end = off + len; i < end; i++) {
+            state[i >>> 6] &= ~(1L << (i & 63));
+        }
+    }
+
+    private static class OpcodeTable {
+
+        //Every needle position with this opcode.
+        final long[] all;
+        //Positions whose operand is a wildcard.
+        final long[] any;
+        //If any position has a non wildcard operand.
+        boolean operands;
+        //Var, int and iinc operands and their positions, only ever a handful so they are scanned.
+        long[] values = new long[0];
+        long[][] valueMasks = new long[0][];
+        //Type descs and constants.
+        final Map<Object, long[]> exact = new HashMap<>();
+        //Field and method references by name.
+        final Map<String, Member[]> members = new HashMap<>();
+
+        OpcodeTable(int words) {
+            all = new long[words];
+            any = new long[words];
+        }
+
+        //The mask for the needle instruction's operand, created if needed.
+        long[] compile(AbstractInsnNode insn, int words) {
+            switch (insn.getType()) {
+                case VAR_INSN:
+                    int var = ((VarInsnNode) insn).var;
+                    return var == -1 ? any : addValue(var, words);
+                case INT_INSN:
+                    int operand = ((IntInsnNode) insn).operand;
+                    return operand == -1 ? any : addValue(operand, words);
+                case IINC_INSN:
+                    return addValue(iinc((IincInsnNode) insn), words);
+                case TYPE_INSN:
+                    String desc = ((TypeInsnNode) insn).desc;
+                    return desc.equals("*") ? any : addExact(desc, words);
+                case LDC_INSN:
+                    Object cst = ((LdcInsnNode) insn).cst;
+                    return cst == null ? any : addExact(cst, words);
+                case FIELD_INSN:
+                    FieldInsnNode finsn = (FieldInsnNode) insn;
+                    return addMember(finsn.owner, finsn.name, finsn.desc, words);
+                case METHOD_INSN:
+                    MethodInsnNode minsn = (MethodInsnNode) insn;
+                    return addMember(minsn.owner, minsn.name, minsn.desc, words);
+                default:
+                    return any;
+            }
+        }
+
+        private long[] addValue(long value, int words) {
+            operands = true;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == value) {
+                    return valueMasks[i];
+                }
+            }
+            values = Arrays.copyOf(values, values.length + 1);
+            valueMasks = Arrays.copyOf(valueMasks, valueMasks.length + 1);
+            values[values.length - 1] = value;
+            return valueMasks[valueMasks.length - 1] = new long[words];
+        }
+
+        private long[] addExact(Object key, int words) {
+            operands = true;
+            return exact.computeIfAbsent(key, e -> new long[words]);
+        }
+
+        private long[] addMember(String owner, String name, String desc, int words) {
+            operands = true;
+            Member[] found = members.getOrDefault(name, new Member[0]);
+            for (Member m : found) {
+                if (m.owner.equals(owner) && m.desc.equals(desc)) {
+                    return m.mask;
+                }
+            }
+            found = Arrays.copyOf(found, found.length + 1);
+            found[found.length - 1] = new Member(owner.intern(), desc.intern(), new long[words]);
+            members.put(name.intern(), found);
+            return found[found.length - 1].mask;
+        }
+
+        //Operand masks also match every wildcard position.
+        void finish() {
+            for (long[] mask : valueMasks) {
+                or(mask, any);
+            }
+            for (long[] mask : exact.values()) {
+                or(mask, any);
+            }
+            for (Member[] found : members.values()) {
+                for (Member m : found) {
+                    or(m.mask, any);
+                }
+            }
+        }
+
+        long[] value(long value) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == value) {
+                    return valueMasks[i];
+                }
+            }
+            return any;
+        }
+
+        long[] member(String owner, String name, String desc) {
+            Member[] found = members.get(name);
+            if (found != null) {
+                for (Member m : found) {
+                    if ((m.owner == owner || m.owner.equals(owner)) && (m.desc == desc || m.desc.equals(desc))) {
+                        return m.mask;
+                    }
+                }
+            }
+            return any;
+        }
+
+        private static void or(long[] mask, long[] other) {
+            for (int w = 0; w < mask.length; w++) {
+                mask[w] |= other[w];
+            }
+        }
+    }
+
+    private static final class Member {
+
+        final String owner;
+        final String desc;
+        final long[] mask;
+
+        Member(String owner, String desc, long[] mask) {
+            this.owner = owner;
+            this.desc = desc;
+            this.mask = mask;
+        }
+    }
+}
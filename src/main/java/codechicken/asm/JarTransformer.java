@@ -0,0 +1,303 @@
+package codechicken.asm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Applies a {@link ModularASMTransformer} to entire jars ahead of time.
+ * <p>
+ * Entries are read from a {@link ZipFile}, class entries are transformed in parallel on a
+ * {@link ForkJoinPool} and everything is written back out sorted by name, so output is deterministic.
+ * At most a bounded number of entries are in flight at once.
+ * <p>
+ * Signatures no longer match transformed classes, so signature files and the manifest's digests are dropped.
+ * <p>
+ * Can be run from the command line, see {@link #main}.
+ */
+public class JarTransformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarTransformer.class);
+
+    public final ModularASMTransformer transformer;
+    public final ForkJoinPool pool;
+    private final int window;
+
+    public JarTransformer(@Nonnull ModularASMTransformer transformer, @Nonnull ForkJoinPool pool) {
+        this.transformer = transformer;
+        this.pool = pool;
+        window = pool.getParallelism() * 4;
+    }
+
+    /**
+     * Declares the super types of every class inside the provided jar or directory to the transformer's {@link ClassHierarchy}.
+     * Only the class header is parsed.
+     *
+     * @param path The jar or directory.
+     * @return The number of classes declared.
+     * @throws IOException If the path could not be read.
+     */
+    public int declareHierarchy(@Nonnull Path path) throws IOException {
+        return ClasspathIndexer.index(transformer.hierarchy, Collections.singletonList(path), pool).classes;
+    }
+
+    /**
+     * Transforms every class in the input jar, copying all other entries as-is apart from signatures.
+     * Classes that fail to transform are copied untransformed and logged.
+     * The output is written next to its destination and moved into place, so it may be the input.
+     *
+     * @param input  The jar to read.
+     * @param output The jar to write.
+     * @return The number of classes that failed to transform.
+     * @throws IOException If either jar could not be read or written.
+     */
+    public int transformJar(@Nonnull Path input, @Nonnull Path output) throws IOException {
+        Path dir = output.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, output.getFileName().toString(), ".tmp");
+        try {
+            int failures;
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                failures = transformJar(input, os);
+            }
+            try {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return failures;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private int transformJar(Path input, OutputStream output) throws IOException {
+        int failures = 0;
+        try (ZipFile zip = new ZipFile(input.toFile());
+             ZipOutputStream zos = new ZipOutputStream(output)) {
+            List<ZipEntry> entries = new ArrayList<>(Collections.list(zip.entries()));
+            entries.sort(Comparator.comparing(ZipEntry::getName));
+
+            Deque<ForkJoinTask<Result>> inFlight = new ArrayDeque<>();
+            for (ZipEntry entry : entries) {
+                inFlight.add(pool.submit(() -> process(zip, entry)));
+                if (inFlight.size() >= window) {
+                    failures += write(zos, inFlight.poll().join());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                failures += write(zos, inFlight.poll().join());
+            }
+        }
+        return failures;
+    }
+
+    @Nullable
+    private Result process(ZipFile zip, ZipEntry entry) throws IOException {
+        if (entry.isDirectory()) {
+            return new Result(entry, null, null);
+        }
+
+        byte[] bytes;
+        try (InputStream is = zip.getInputStream(entry)) {
+            bytes = readAll(is);
+        }
+
+        String name = entry.getName();
+        if (isSignature(name)) {
+            return null;
+        }
+        if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+            return new Result(entry, stripDigests(bytes), null);
+        }
+        if (!name.endsWith(".class")) {
+            return new Result(entry, bytes, null);
+        }
+        String className = name.substring(0, name.length() - 6).replace('/', '.');
+        try {
+            return new Result(entry, transformer.transform(className, bytes), null);
+        } catch (Throwable e) {
+            return new Result(entry, bytes, e);
+        }
+    }
+
+    //Signature block files directly inside META-INF.
+    private static boolean isSignature(String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        if (!upper.startsWith("META-INF/") || upper.indexOf('/', 9) != -1) {
+            return false;
+        }
+        return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+    }
+
+    //Removes the per entry digests signing added, along with any entry left without attributes.
+    private static byte[] stripDigests(byte[] bytes) throws IOException {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(bytes));
+        for (Iterator<Attributes> it = manifest.getEntries().values().iterator(); it.hasNext(); ) {
+            Attributes attributes = it.next();
+            attributes.keySet().removeIf(e -> e.toString().toUpperCase(Locale.ROOT).endsWith("-DIGEST"));
+            if (attributes.isEmpty()) {
+                it.remove();
+            }
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        manifest.write(bos);
+        return bos.toByteArray();
+    }
+
+    private static int write(ZipOutputStream zos, @Nullable Result result) throws IOException {
+        if (result == null) {
+            return 0;
+        }
+        ZipEntry entry = new ZipEntry(result.entry.getName());
+        entry.setTime(result.entry.getTime());
+        zos.putNextEntry(entry);
+        if (result.bytes != null) {
+            zos.write(result.bytes);
+        }
+        zos.closeEntry();
+
+        if (result.error != null) {
+            LOGGER.error("Failed to transform {}, copied as-is.", result.entry.getName(), result.error);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = is.read(buf)) != -1) {
+            bos.write(buf, 0, len);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Command line entry point.
+     * <pre>
+     * --input &lt;jar&gt;         A jar to transform, may be repeated.
+     * --output &lt;dir&gt;        Directory transformed jars are written to, using the input file names.
+     * --classpath &lt;path&gt;    A jar or directory the transformers and class hierarchy are loaded from, may be repeated.
+     * --transformer &lt;class&gt; A class implementing Consumer&lt;ModularASMTransformer&gt; which registers
+     *                       transformers, may be repeated. Use {@link ASMReader} inside it to load resources.
+     * --threads &lt;n&gt;         Number of threads to transform with, defaults to the number of processors.
+     * </pre>
+     * Exits with status 1 if any class failed to transform.
+     */
+    public static void main(String[] args) throws Exception {
+        List<Path> inputs = new ArrayList<>();
+        List<Path> classpath = new ArrayList<>();
+        List<String> providers = new ArrayList<>();
+        Path outputDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--input":
+                    inputs.add(Paths.get(value));
+                    break;
+                case "--output":
+                    outputDir = Paths.get(value);
+                    break;
+                case "--classpath":
+                    classpath.add(Paths.get(value));
+                    break;
+                case "--transformer":
+                    providers.add(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    usage("Unknown argument " + arg);
+            }
+        }
+        if (inputs.isEmpty() || outputDir == null || providers.isEmpty()) {
+            usage("--input, --output and --transformer are required.");
+        }
+
+        List<URL> urls = new ArrayList<>();
+        for (Path path : classpath) {
+            urls.add(toURL(path));
+        }
+        for (Path path : inputs) {
+            urls.add(toURL(path));
+        }
+        ClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), JarTransformer.class.getClassLoader());
+
+        ModularASMTransformer transformer = new ModularASMTransformer(outputDir.toFile(), "JarTransformer");
+        for (String provider : providers) {
+            @SuppressWarnings ("unchecked")
+            Consumer<ModularASMTransformer> consumer = (Consumer<ModularASMTransformer>) Class.forName(provider, true, loader).getConstructor().newInstance();
+            consumer.accept(transformer);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        JarTransformer jarTransformer = new JarTransformer(transformer, pool);
+        List<Path> hierarchy = new ArrayList<>(classpath);
+        hierarchy.addAll(inputs);
+        LOGGER.info("Declared {}.", ClasspathIndexer.index(transformer.hierarchy, hierarchy, pool));
+
+        int failures = 0;
+        for (Path input : inputs) {
+            long start = System.nanoTime();
+            failures += jarTransformer.transformJar(input, outputDir.resolve(input.getFileName().toString()));
+            LOGGER.info("Transformed {} in {}ms.", input, (System.nanoTime() - start) / 1000000);
+        }
+        pool.shutdown();
+        if (failures != 0) {
+            LOGGER.error("{} classes failed to transform.", failures);
+            System.exit(1);
+        }
+    }
+
+    private static URL toURL(Path path) throws MalformedURLException {
+        return path.toUri().toURL();
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: --input <jar> --output <dir> --transformer <class> [--classpath <path>] [--threads <n>]");
+        System.exit(1);
+    }
+
+    private static class Result {
+
+        final ZipEntry entry;
+        final byte[] bytes;
+        final Throwable error;
+
+        Result(ZipEntry entry, byte[] bytes, Throwable error) {
+            this.entry = entry;
+            this.bytes = bytes;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package codechicken.asm;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads JDK class files straight from the runtime image, the jrt:/ filesystem on Java 9+ or rt.jar on Java 8.
+ * Names outside the JDK's packages are rejected with a single map lookup.
+ * <p>
+ * Used by every {@link ClassHierarchy} before its own lookup functions, see {@link ClassHierarchy#jdkClasses}.
+ */
+public abstract class JdkClassLookup implements Function<String, byte @Nullable []> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdkClassLookup.class);
+
+    /**
+     * @return The lookup for the running JDK, or null if its image could not be opened.
+     */
+    @Nullable
+    public static JdkClassLookup instance() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public byte @Nullable [] apply(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot == -1) {
+            return null;
+        }
+        try {
+            return read(name.substring(0, dot), name.replace('.', '/') + ".class");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    protected abstract byte @Nullable [] read(String pkg, String path) throws IOException;
+
+    private static class Holder {
+
+        @Nullable
+        static final JdkClassLookup INSTANCE = open();
+
+        @Nullable
+        private static JdkClassLookup open() {
+            try {
+                File rtJar = new File(System.getProperty("java.home"), "lib/rt.jar");
+                if (rtJar.exists()) {
+                    return new RtJar(new ZipFile(rtJar));
+                }
+                return new Jrt(FileSystems.getFileSystem(URI.create("jrt:/")));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to open the JDK runtime image, JDK classes will be looked up through other means.", e);
+                return null;
+            }
+        }
+    }
+
+    //Java 9+, /packages/<package>/<module> links each package to the module holding it.
+    private static class Jrt extends JdkClassLookup {
+
+        private final FileSystem fs;
+        private final Map<String, Path> packages = new HashMap<>();
+
+        Jrt(FileSystem fs) throws IOException {
+            this.fs = fs;
+            try (DirectoryStream<Path> pkgs = Files.newDirectoryStream(fs.getPath("/packages"))) {
+                for (Path pkg : pkgs) {
+                    try (Stream<Path> modules = Files.list(pkg)) {
+                        modules.findFirst().ifPresent(module -> packages.put(pkg.getFileName().toString(), fs.getPath("/modules", module.getFileName().toString())));
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected byte @Nullable [] read(String pkg, String path) throws IOException {
+            Path module = packages.get(pkg);
+            if (module == null) {
+                return null;
+            }
+            Path file = module.resolve(path);
+            return Files.exists(file) ? Files.readAllBytes(file) : null;
+        }
+    }
+
+    //Java 8, every JDK class is in rt.jar.
+    private static class RtJar extends JdkClassLookup {
+
+        private final ZipFile zip;
+        private final Set<String> packages = new HashSet<>();
+
+        RtJar(ZipFile zip) {
+            this.zip = zip;
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                String name = entry.getName();
+                if (name.endsWith(".class") && name.lastIndexOf('/') != -1) {
+                    packages.add(name.substring(0, name.lastIndexOf('/')).replace('/', '.'));
+                }
+            }
+        }
+
+        @Override
+        protected byte @Nullable [] read(String pkg, String path) throws IOException {
+            if (!packages.contains(pkg)) {
+                return null;
+            }
+            ZipEntry entry = zip.getEntry(path);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream is = zip.getInputStream(entry)) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int len;
+                while ((len = is.read(buf)) != -1) {
+                    bos.write(buf, 0, len);
+                }
+                return bos.toByteArray();
+            }
+        }
+    }
+}
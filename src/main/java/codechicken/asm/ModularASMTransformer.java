@@ -1,20 +1,25 @@
 package codechicken.asm;
 
+import codechicken.asm.metrics.Metrics;
+import codechicken.asm.metrics.TransformMetrics;
 import codechicken.asm.transformers.ClassNodeTransformer;
+import codechicken.asm.transformers.NeedleTransformer;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static codechicken.asm.ASMHelper.createBytes;
 import static codechicken.asm.ASMHelper.dump;
@@ -26,12 +31,29 @@ public class ModularASMTransformer {
     //The format in which to dump the transformed classes.
     public static final boolean DUMP_RAW = Boolean.parseBoolean(System.getProperty("ccl.asm.debug.dump_raw", "false")) && DEBUG;
     public static final boolean DUMP_TEXT = Boolean.parseBoolean(System.getProperty("ccl.asm.debug.dump_text", "false")) && DEBUG;
+    //Marks a transformer list that can't be fingerprinted, and so is never cached.
+    private static final byte[] NO_FINGERPRINT = new byte[0];
 
     public File dumpFolder;
 
-    public HashMap<String, ClassNodeTransformerList> transformers = new HashMap<>();
+    /**
+     * Snapshot of the registered transformers, keyed by class name.
+     * Registration publishes a new snapshot, so lookups from {@link #transform} never lock.
+     * A published snapshot is never modified, treat it as read only and register through {@link #add}.
+     */
+    public volatile HashMap<String, ClassNodeTransformerList> transformers = new HashMap<>();
     public String name;
 
+    /**
+     * Optional persistent cache of transformed classes, see {@link #enableCache(Path)}.
+     */
+    @Nullable
+    public volatile TransformCache cache;
+    /**
+     * The hierarchy frames are computed and batches are declared with.
+     */
+    public volatile ClassHierarchy hierarchy = ClassHierarchyManager.DEFAULT;
+
     public ModularASMTransformer(File dumpFolder, String name) {
         this.name = name;
         this.dumpFolder = dumpFolder;
@@ -39,12 +61,60 @@ public class ModularASMTransformer {
 
     /**
      * Adds a ClassNodeTransformer to this transformer.
+     * Safe to call while other threads are transforming, they will pick up the new transformer on their next lookup.
      *
      * @param t Transformer to add.
      */
     public void add(@Nonnull ClassNodeTransformer t) {
-        ClassNodeTransformerList list = transformers.computeIfAbsent(t.className(), k -> new ClassNodeTransformerList());
-        list.add(t);
+        addAll(Collections.singletonList(t));
+    }
+
+    /**
+     * Adds all the provided ClassNodeTransformers to this transformer, publishing them as a single snapshot.
+     *
+     * @param ts Transformers to add.
+     */
+    public synchronized void addAll(@Nonnull Collection<? extends ClassNodeTransformer> ts) {
+        HashMap<String, ClassNodeTransformerList> snapshot = new HashMap<>(transformers);
+        for (ClassNodeTransformer t : ts) {
+            ClassNodeTransformerList list = snapshot.get(t.className());
+            snapshot.put(t.className(), list == null ? new ClassNodeTransformerList(Collections.singletonList(t)) : list.with(t));
+        }
+        transformers = snapshot;
+    }
+
+    /**
+     * Enables the persistent cache of transformed classes.
+     * Classes whose bytes and transformers are unchanged since they were last cached are returned
+     * straight from the cache without being transformed.
+     *
+     * Frames depend on the hierarchy of other classes, classes whose frames are computed are cached
+     * against the JVM's classpath, see {@link #enableCache(Path, long)} to provide a different one.
+     *
+     * A cache enabled before is closed.
+     *
+     * @param folder The folder to store the cache in.
+     * @throws IOException If the cache could not be opened.
+     */
+    public void enableCache(@Nonnull Path folder) throws IOException {
+        enableCache(folder, HierarchyIndex.classpathFingerprint());
+    }
+
+    /**
+     * Enables the persistent cache of transformed classes, see {@link #enableCache(Path)}.
+     *
+     * @param folder    The folder to store the cache in.
+     * @param classpath The fingerprint of every class {@link #hierarchy} can resolve, see {@link HierarchyIndex#classpathFingerprint}.
+     * @throws IOException If the cache could not be opened.
+     */
+    public synchronized void enableCache(@Nonnull Path folder, long classpath) throws IOException {
+        TransformCache previous = cache;
+        if (previous != null) {
+            //Closed first, the new cache may be in the same folder.
+            cache = null;
+            previous.close();
+        }
+        cache = TransformCache.open(folder, classpath);
     }
 
     /**
@@ -54,6 +124,7 @@ public class ModularASMTransformer {
      * @param bytes Class bytes.
      * @return Returns null if the class passed is null, returns original class if there are no transformers for a given class.
      * Otherwise returns transformed class.
+     * May be called concurrently from any number of threads.
      */
     @Nullable
     public byte[] transform(@Nonnull String name, @Nullable byte[] bytes) {
@@ -62,21 +133,272 @@ public class ModularASMTransformer {
         }
 
         ClassNodeTransformerList list = transformers.get(name);
-        return list == null ? bytes : list.transform(bytes);
+        if (list == null) {
+            return bytes;
+        }
+
+        TransformCache cache = this.cache;
+        if (cache == null) {
+            return transform(name, list, bytes);
+        }
+
+        byte[] fingerprint = list.fingerprint();
+        if (fingerprint == null) {
+            return transform(name, list, bytes);
+        }
+        byte[] key = TransformCache.key(fingerprint, (list.allWriteFlags & ClassWriter.COMPUTE_FRAMES) != 0 ? cache.classpath : 0, bytes);
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] transformed = transform(name, list, bytes);
+        cache.put(key, transformed);
+        return transformed;
+    }
+
+    private static byte[] transform(String name, ClassNodeTransformerList list, byte[] bytes) {
+        long start = Metrics.start();
+        byte[] transformed;
+        try {
+            transformed = list.transform(bytes);
+        } catch (Throwable e) {
+            TransformMetrics.INSTANCE.classFailed(name, start);
+            throw e;
+        }
+        TransformMetrics.INSTANCE.classTransformed(name, start, bytes.length, transformed.length);
+        return transformed;
+    }
+
+    /**
+     * Transforms many classes in parallel on the common {@link ForkJoinPool}.
+     *
+     * @param classes The classes to transform, name to bytes.
+     * @return The transformed classes and any failures.
+     * @see #transformAll(Map, ForkJoinPool)
+     */
+    public TransformResults transformAll(@Nonnull Map<String, byte[]> classes) {
+        return transformAll(classes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Transforms many classes in parallel on the provided {@link ForkJoinPool}.
+     * Every class is declared to the {@link #hierarchy} first, so frame computation for classes
+     * within the batch never needs to look them up.
+     * A failure to transform one class does not stop the others.
+     *
+     * @param classes The classes to transform, name to bytes.
+     * @param pool    The pool to transform on.
+     * @return The transformed classes and any failures, both in the iteration order of classes.
+     */
+    public TransformResults transformAll(@Nonnull Map<String, byte[]> classes, @Nonnull ForkJoinPool pool) {
+        List<Map.Entry<String, byte[]>> entries = new ArrayList<>(classes.entrySet());
+        ClassHierarchy hierarchy = this.hierarchy;
+        for (Map.Entry<String, byte[]> entry : entries) {
+            if (entry.getValue() != null) {
+                try {
+                    hierarchy.declare(entry.getKey(), entry.getValue());
+                } catch (RuntimeException ignored) {
+                    //Bad class bytes, reported by the transform below.
+                }
+            }
+        }
+
+        int n = entries.size();
+        byte[][] results = new byte[n][];
+        Throwable[] errors = new Throwable[n];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int idx = i;
+            Map.Entry<String, byte[]> entry = entries.get(i);
+            tasks.add(pool.submit(() -> {
+                try {
+                    results[idx] = transform(entry.getKey(), entry.getValue());
+                } catch (Throwable e) {
+                    errors[idx] = e;
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        TransformResults ret = new TransformResults();
+        for (int i = 0; i < n; i++) {
+            String name = entries.get(i).getKey();
+            if (errors[i] != null) {
+                ret.failures.put(name, errors[i]);
+            } else {
+                ret.classes.put(name, results[i]);
+            }
+        }
+        return ret;
     }
 
     /**
-     * Contains a list of transformers for a given class.
+     * The output of {@link #transformAll}.
+     */
+    public static class TransformResults {
+
+        /**
+         * Transformed class bytes for every class that did not fail, name to bytes.
+         */
+        public final Map<String, byte[]> classes = new LinkedHashMap<>();
+        /**
+         * The exception thrown for each class that failed to transform.
+         */
+        public final Map<String, Throwable> failures = new LinkedHashMap<>();
+    }
+
+    /**
+     * Contains an immutable list of transformers for a given class.
      * Also contains some basic logic for doing the actual transform.
      */
     public class ClassNodeTransformerList {
 
-        List<ClassNodeTransformer> transformers = new LinkedList<>();
-        HashSet<ObfMapping> methodsToSort = new HashSet<>();
+        final List<ClassNodeTransformer> transformers;
+        //The transformers as applied, needle transformers on the same method are searched for in one pass.
+        final List<ClassNodeTransformer> steps;
+        final Set<ObfMapping> methodsToSort;
+        //The only methods that need expanding and the write flags each one needs, null if the whole class must be expanded.
+        @Nullable
+        final Map<ObfMapping, Integer> methodWriteFlags;
+        //Every transformers write flags combined.
+        final int allWriteFlags;
+        //Flags for the ClassWriter, for a partial transform these only apply to expanded methods.
+        final int writeFlags;
+        //If only some of the expanded methods need their frames computed.
+        final boolean mixedFrames;
+        //The smallest set of features the ClassReader has to parse.
+        final int readerFlags;
+        @Nullable
+        private volatile byte[] fingerprint;
 
+        ClassNodeTransformerList(List<ClassNodeTransformer> transformers) {
+            Set<ObfMapping> methodsToSort = new HashSet<>();
+            Map<ObfMapping, Integer> methodWriteFlags = new HashMap<>();
+            boolean partial = true;
+            int allWriteFlags = 0;
+            int skipFlags = ClassReader.SKIP_FRAMES;
+            for (ClassNodeTransformer t : transformers) {
+                t.addMethodsToSort(methodsToSort);
+                allWriteFlags |= t.writeFlags;
+                skipFlags &= t.readerFlags();
+                Set<ObfMapping> targets = new HashSet<>();
+                partial &= t.addTargetMethods(targets);
+                for (ObfMapping m : targets) {
+                    methodWriteFlags.merge(m, t.writeFlags, (a, b) -> a | b);
+                }
+            }
+            this.transformers = Collections.unmodifiableList(new ArrayList<>(transformers));
+            steps = Collections.unmodifiableList(NeedleTransformer.batch(this.transformers));
+            this.methodsToSort = Collections.unmodifiableSet(methodsToSort);
+            this.allWriteFlags = allWriteFlags;
+            if (partial) {
+                int writeFlags = 0;
+                int framed = 0;
+                for (int flags : methodWriteFlags.values()) {
+                    writeFlags |= flags;
+                    if ((flags & ClassWriter.COMPUTE_FRAMES) != 0) {
+                        framed++;
+                    }
+                }
+                this.methodWriteFlags = Collections.unmodifiableMap(methodWriteFlags);
+                mixedFrames = framed != 0 && framed != methodWriteFlags.size();
+                //Frames for a mix are computed one method at a time, the writer only needs to fix up maxs.
+                this.writeFlags = mixedFrames ? ClassWriter.COMPUTE_MAXS : writeFlags;
+                if (framed != methodWriteFlags.size()) {
+                    skipFlags &= ~ClassReader.SKIP_FRAMES;
+                }
+            } else {
+                this.methodWriteFlags = null;
+                mixedFrames = false;
+                writeFlags = allWriteFlags;
+                if ((writeFlags & ClassWriter.COMPUTE_FRAMES) == 0) {
+                    skipFlags &= ~ClassReader.SKIP_FRAMES;
+                }
+            }
+            //Frames that are kept must be expanded, LocalVariablesSorter and tree edits rely on it.
+            readerFlags = (skipFlags & ClassReader.SKIP_FRAMES) != 0 ? skipFlags : skipFlags | ClassReader.EXPAND_FRAMES;
+        }
+
+        /**
+         * @deprecated Lists are immutable, use {@link #with} or {@link ModularASMTransformer#add}.
+         */
+        @Deprecated
+        public ClassNodeTransformerList() {
+            this(Collections.emptyList());
+        }
+
+        /**
+         * Registers the provided transformer with the owning {@link ModularASMTransformer}, this list is not modified.
+         *
+         * @deprecated Lists are immutable, use {@link ModularASMTransformer#add}.
+         */
+        @Deprecated
         public void add(ClassNodeTransformer t) {
-            transformers.add(t);
-            t.addMethodsToSort(methodsToSort);
+            ModularASMTransformer.this.add(t);
+        }
+
+        /**
+         * @param t Transformer to append.
+         * @return A new list containing this list's transformers followed by the provided one.
+         */
+        public ClassNodeTransformerList with(ClassNodeTransformer t) {
+            List<ClassNodeTransformer> list = new ArrayList<>(transformers);
+            list.add(t);
+            return new ClassNodeTransformerList(list);
+        }
+
+        /**
+         * Computes frames for each expanded method whose transformers asked for them.
+         * Methods not declared by any transformer get the flags of the entire list.
+         */
+        private void computeFrames(ClassNode cnode) {
+            for (ListIterator<MethodNode> it = cnode.methods.listIterator(); it.hasNext(); ) {
+                MethodNode mnode = it.next();
+                if ((writeFlags(mnode) & ClassWriter.COMPUTE_FRAMES) != 0) {
+                    it.set(ASMHelper.computeFrames(cnode, mnode, hierarchy));
+                }
+            }
+        }
+
+        //Matched by name and descriptor, like the transformers find their methods.
+        private int writeFlags(MethodNode mnode) {
+            int flags = 0;
+            boolean found = false;
+            for (Map.Entry<ObfMapping, Integer> entry : methodWriteFlags.entrySet()) {
+                if (entry.getKey().matches(mnode)) {
+                    flags |= entry.getValue();
+                    found = true;
+                }
+            }
+            return found ? flags : allWriteFlags;
+        }
+
+        public List<ClassNodeTransformer> getTransformers() {
+            return transformers;
+        }
+
+        /**
+         * @return A digest of every transformer in this list, see {@link ClassNodeTransformer#fingerprint},
+         * or null if any of them can't be fingerprinted.
+         */
+        @Nullable
+        public byte[] fingerprint() {
+            byte[] fingerprint = this.fingerprint;
+            if (fingerprint == null) {
+                Fingerprinter fp = new Fingerprinter();
+                fp.putInt(transformers.size());
+                boolean cacheable = true;
+                for (ClassNodeTransformer t : transformers) {
+                    if (!t.fingerprint(fp)) {
+                        cacheable = false;
+                        break;
+                    }
+                }
+                this.fingerprint = fingerprint = cacheable ? fp.finish() : NO_FINGERPRINT;
+            }
+            return fingerprint == NO_FINGERPRINT ? null : fingerprint;
         }
 
         public byte[] transform(byte[] bytes) {
@@ -86,33 +408,49 @@ public class ModularASMTransformer {
             if (!methodsToSort.isEmpty()) {
                 cv = new LocalVariablesSorterVisitor(methodsToSort, cv);
             }
-            reader.accept(cv, ClassReader.EXPAND_FRAMES);
+            //Untouched methods are copied straight from the reader into a writer sharing its constant pool.
+            ClassWriter writer = null;
+            PartialClassVisitor partial = null;
+            if (methodWriteFlags != null) {
+                writer = new CC_ClassWriter(reader, writeFlags, hierarchy);
+                cv = partial = new PartialClassVisitor(methodWriteFlags.keySet(), writer, cv);
+            }
+            long start = Metrics.start();
+            reader.accept(cv, readerFlags);
+            TransformMetrics.INSTANCE.parse(start);
 
             try {
-                int writeFlags = 0;
-                for (ClassNodeTransformer t : transformers) {
+                start = Metrics.start();
+                for (ClassNodeTransformer t : steps) {
+                    long tStart = Metrics.start();
                     t.transform(cnode);
-                    writeFlags |= t.writeFlags;
+                    //Batches record the time of each of their transformers.
+                    if (!(t instanceof NeedleTransformer.Batch)) {
+                        TransformMetrics.INSTANCE.transformer(t, tStart);
+                    }
                 }
+                TransformMetrics.INSTANCE.transform(start);
 
-                bytes = createBytes(cnode, writeFlags);
-                if (DUMP_RAW) {
-                    File file = new File(dumpFolder, cnode.name.replace('/', '.') + ".class");
-                    if (!file.exists()) {
-                        if (!file.getParentFile().exists()) {
-                            file.getParentFile().mkdirs();
-                        }
-                        file.createNewFile();
+                if (partial != null) {
+                    if (mixedFrames) {
+                        computeFrames(cnode);
                     }
-                    FileOutputStream fos = new FileOutputStream(file);
-                    fos.write(bytes);
-                    fos.flush();
-                    fos.close();
+                    start = Metrics.start();
+                    partial.write(reader, cnode, readerFlags);
+                    bytes = writer.toByteArray();
+                } else {
+                    start = Metrics.start();
+                    bytes = createBytes(cnode, writeFlags, hierarchy);
+                }
+                TransformMetrics.INSTANCE.write(start);
+                if (DUMP_RAW) {
+                    DumpWriter.instance().dumpRaw(bytes, new File(dumpFolder, cnode.name.replace('/', '.') + ".class"));
                 } else if (DUMP_TEXT) {
-                    dump(bytes, new File(dumpFolder, cnode.name.replace('/', '.') + ".txt"), false, false, true);
+                    DumpWriter.instance().dumpText(bytes, new File(dumpFolder, cnode.name.replace('/', '.') + ".txt"));
                 }
                 return bytes;
             } catch (Exception e) {
+                //Written synchronously so the dump is guaranteed to exist before the exception propagates.
                 dump(bytes, new File(dumpFolder, cnode.name.replace('/', '.') + ".txt"), false, false, true);
                 throw new RuntimeException(e);
             }
@@ -0,0 +1,99 @@
+package codechicken.asm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards only the provided methods to the delegate visitor, all other methods are skipped.
+ * Methods are matched by name and descriptor like {@link ASMHelper#findMethod}, the owner of each mapping is ignored.
+ * {@link #write} then hands the skipped methods straight to a {@link ClassWriter} that was created from the same
+ * {@link ClassReader}, which lets ASM copy their bytes as-is without decoding them.
+ */
+public class PartialClassVisitor extends ClassVisitor {
+
+    public Set<ObfMapping> methods;
+    public ClassWriter writer;
+    public String owner;
+
+    public PartialClassVisitor(Set<ObfMapping> methods, ClassWriter writer, ClassVisitor cv) {
+        super(Opcodes.ASM9, cv);
+        this.methods = methods;
+        this.writer = writer;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        super.visit(version, access, name, signature, superName, interfaces);
+        owner = name;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if (expands(name, desc)) {
+            return super.visitMethod(access, name, desc, signature, exceptions);
+        }
+        return null;
+    }
+
+    private boolean expands(String name, String desc) {
+        for (ObfMapping method : methods) {
+            if (method.s_name.equals(name) && method.s_desc.equals(desc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the transformed class to the writer, methods keep their original order.
+     * Methods of cnode that were not in the original class are written last.
+     *
+     * @param reader      The reader this visitor was accepted by.
+     * @param cnode       The transformed class.
+     * @param readerFlags The flags used to read the class.
+     */
+    public void write(ClassReader reader, ClassNode cnode, int readerFlags) {
+        Map<String, MethodNode> expanded = new LinkedHashMap<>();
+        for (MethodNode mnode : cnode.methods) {
+            expanded.put(mnode.name + mnode.desc, mnode);
+        }
+        cnode.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return null;
+            }
+
+            @Override
+            public void visitEnd() {
+            }
+        });
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                if (!expands(name, desc)) {
+                    return writer.visitMethod(access, name, desc, signature, exceptions);
+                }
+                MethodNode mnode = expanded.remove(name + desc);
+                if (mnode != null) {
+                    mnode.accept(writer);
+                }
+                return null;
+            }
+
+            @Override
+            public void visitEnd() {
+                expanded.values().forEach(mnode -> mnode.accept(writer));
+                writer.visitEnd();
+            }
+        }, readerFlags);
+    }
+}
@@ -0,0 +1,260 @@
+package codechicken.asm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, content addressed store of transformed class bytes.
+ * <p>
+ * Entries are appended to a single file and read back through a memory mapping.
+ * Each record is laid out as {@code magic, key[32], length, crc32, data[length]}.
+ * The index is rebuilt by scanning the record headers when the cache is opened, a torn
+ * or corrupt tail is truncated away. Data is checked against its crc on every read, a
+ * mismatch is treated as a miss so the caller falls back to a real transform.
+ */
+public class TransformCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransformCache.class);
+
+    //Bump when the transform pipeline changes in a way that changes its output.
+    private static final int VERSION = 2;
+    private static final int MAGIC = 0x43434143;
+    private static final int KEY_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + KEY_LENGTH + 4 + 4;
+
+    /**
+     * The classpath fingerprint mixed into the keys of classes whose frames are computed,
+     * those depend on the hierarchy of other classes and not just on their own bytes.
+     */
+    public final long classpath;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<ByteBuffer, Entry> index = new ConcurrentHashMap<>();
+    private volatile MappedByteBuffer mapped;
+    private long size;
+
+    private TransformCache(Path file, long classpath) throws IOException {
+        this.file = file;
+        this.classpath = classpath;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            //Held until the channel is closed, so no other process appends to or truncates the file under us.
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Transform cache " + file + " is in use.");
+            }
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens or creates a cache inside the provided folder, for the JVM's classpath.
+     *
+     * @see #open(Path, long)
+     */
+    public static TransformCache open(@Nonnull Path folder) throws IOException {
+        return open(folder, HierarchyIndex.classpathFingerprint());
+    }
+
+    /**
+     * Opens or creates a cache inside the provided folder.
+     *
+     * The cache file is locked while the cache is open, only one cache per folder can be open at a time.
+     *
+     * @param folder    The folder to store the cache in.
+     * @param classpath The fingerprint of the classpath frames are computed against, see {@link HierarchyIndex#classpathFingerprint}.
+     * @return The cache.
+     * @throws IOException If the cache file could not be opened or is in use.
+     */
+    public static TransformCache open(@Nonnull Path folder, long classpath) throws IOException {
+        Files.createDirectories(folder);
+        return new TransformCache(folder.resolve("transform_cache.bin"), classpath);
+    }
+
+    /**
+     * Computes the cache key for a class.
+     *
+     * @param fingerprint The fingerprint of the transformers applied to the class.
+     * @param classpath   The classpath fingerprint if the transformers compute frames, otherwise 0.
+     * @param bytes       The untransformed class bytes.
+     * @return The key.
+     */
+    public static byte[] key(@Nonnull byte[] fingerprint, long classpath, @Nonnull byte[] bytes) {
+        return new Fingerprinter()
+                .putInt(VERSION)
+                .putBytes(fingerprint)
+                .putLong(classpath)
+                .putBytes(bytes)
+                .finish();
+    }
+
+    /**
+     * @param key The key, as computed by {@link #key}.
+     * @return The cached bytes, or null if there is no valid entry for the key.
+     */
+    @Nullable
+    public byte[] get(@Nonnull byte[] key) {
+        ByteBuffer k = ByteBuffer.wrap(key);
+        Entry entry = index.get(k);
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buf = mapping(entry.offset + HEADER_LENGTH + entry.length).duplicate();
+            buf.position((int) (entry.offset + HEADER_LENGTH));
+            byte[] data = new byte[entry.length];
+            buf.get(data);
+            if (crc(data) == entry.crc) {
+                return data;
+            }
+            LOGGER.warn("Corrupt transform cache entry at {} in {}, ignoring.", entry.offset, file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read transform cache entry at {} in {}, ignoring.", entry.offset, file, e);
+        }
+        index.remove(k, entry);
+        return null;
+    }
+
+    /**
+     * Appends an entry to the cache.
+     *
+     * @param key  The key, as computed by {@link #key}.
+     * @param data The transformed class bytes.
+     */
+    public synchronized void put(@Nonnull byte[] key, @Nonnull byte[] data) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("Invalid key length: " + key.length);
+        }
+        if (size + HEADER_LENGTH + data.length > Integer.MAX_VALUE) {
+            return;//Full, everything past here would not be mappable.
+        }
+
+        int crc = crc(data);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + data.length);
+        buf.putInt(MAGIC).put(key).putInt(data.length).putInt(crc).put(data);
+        buf.flip();
+        long offset = size;
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf, offset + buf.position());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write transform cache entry to {}.", file, e);
+            return;
+        }
+        size += buf.limit();
+        index.put(ByteBuffer.wrap(key.clone()), new Entry(offset, data.length, crc));
+    }
+
+    /**
+     * @return The number of entries in the cache.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+
+    //Reads the headers without mapping the file, a file can't be truncated while it is mapped on some platforms.
+    private void load() throws IOException {
+        long fileSize = Math.min(channel.size(), Integer.MAX_VALUE);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH);
+        long pos = 0;
+        while (pos + HEADER_LENGTH <= fileSize) {
+            buf.clear();
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, pos + buf.position()) < 0) {
+                    break;
+                }
+            }
+            if (buf.hasRemaining()) {
+                break;
+            }
+            buf.flip();
+            if (buf.getInt() != MAGIC) {
+                break;
+            }
+            byte[] key = new byte[KEY_LENGTH];
+            buf.get(key);
+            int length = buf.getInt();
+            int crc = buf.getInt();
+            if (length < 0 || pos + HEADER_LENGTH + length > fileSize) {
+                break;
+            }
+            index.put(ByteBuffer.wrap(key), new Entry(pos, length, crc));
+            pos += HEADER_LENGTH + length;
+        }
+        if (pos != channel.size()) {
+            LOGGER.warn("Transform cache {} has a corrupt tail, truncating {} bytes.", file, channel.size() - pos);
+            try {
+                channel.truncate(pos);
+            } catch (IOException e) {
+                //New entries are written from pos regardless, the tail is dropped on a later load.
+                LOGGER.warn("Failed to truncate transform cache {}.", file, e);
+            }
+        }
+        size = pos;
+    }
+
+    private MappedByteBuffer mapping(long end) throws IOException {
+        MappedByteBuffer buf = mapped;
+        if (buf == null || buf.capacity() < end) {
+            synchronized (this) {
+                buf = mapped;
+                if (buf == null || buf.capacity() < end) {
+                    mapped = buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+        }
+        return buf;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private static class Entry {
+
+        final long offset;
+        final int length;
+        final int crc;
+
+        Entry(long offset, int length, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+}
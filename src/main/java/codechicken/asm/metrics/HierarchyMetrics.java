@@ -0,0 +1,246 @@
+package codechicken.asm.metrics;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings for class hierarchy resolution, shared by every {@link codechicken.asm.ClassHierarchy}.
+ * <p>
+ * Use {@link #snapshot()} to read them programmatically, or the {@link HierarchyMetricsMXBean} over JMX.
+ * Nothing is recorded unless {@link Metrics#ENABLED}.
+ */
+public class HierarchyMetrics implements HierarchyMetricsMXBean {
+
+    public static final HierarchyMetrics INSTANCE = new HierarchyMetrics();
+
+    static {
+        if (Metrics.ENABLED) {
+            Metrics.register(INSTANCE, "codechicken.asm:type=HierarchyMetrics");
+        }
+    }
+
+    /**
+     * Where a class was resolved from.
+     */
+    public enum Source {
+        INDEX,
+        JDK,
+        LOOKUP_FUNCTION,
+        RESOURCE,
+        REFLECTION,
+        DECLARED,
+        UNRESOLVED
+    }
+
+    /**
+     * Something holding classes, counted towards {@link #getClassCount()} and {@link #getMemoryEstimate()}.
+     */
+    public interface Tracked {
+
+        int size();
+
+        long estimateMemory();
+    }
+
+    private final LongAdder classExtends = new LongAdder();
+    private final LongAdder superClass = new LongAdder();
+    private final LongAdder commonSuperClass = new LongAdder();
+    private final LongAdder commonSuperClassHits = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder missingHits = new LongAdder();
+    private final LongAdder flattens = new LongAdder();
+    private final Histogram[] resolveTimes = new Histogram[Source.values().length];
+    //Held weakly, so tracking a hierarchy does not keep it alive.
+    private final Set<Tracked> tracked = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private HierarchyMetrics() {
+        for (int i = 0; i < resolveTimes.length; i++) {
+            resolveTimes[i] = new Histogram();
+        }
+    }
+
+    public void track(Tracked t) {
+        if (Metrics.ENABLED) {
+            tracked.add(t);
+        }
+    }
+
+    public void classExtends() {
+        if (Metrics.ENABLED) {
+            classExtends.increment();
+        }
+    }
+
+    public void superClass() {
+        if (Metrics.ENABLED) {
+            superClass.increment();
+        }
+    }
+
+    public void commonSuperClass(boolean hit) {
+        if (Metrics.ENABLED) {
+            commonSuperClass.increment();
+            if (hit) {
+                commonSuperClassHits.increment();
+            }
+        }
+    }
+
+    public void cacheHit() {
+        if (Metrics.ENABLED) {
+            cacheHits.increment();
+        }
+    }
+
+    public void cacheMiss() {
+        if (Metrics.ENABLED) {
+            cacheMisses.increment();
+        }
+    }
+
+    public void missingHit() {
+        if (Metrics.ENABLED) {
+            missingHits.increment();
+        }
+    }
+
+    public void flatten() {
+        if (Metrics.ENABLED) {
+            flattens.increment();
+        }
+    }
+
+    public void resolved(Source source, long start) {
+        if (Metrics.ENABLED) {
+            resolveTimes[source.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return An immutable copy of the current metrics.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public long getClassExtendsCalls() {
+        return classExtends.sum();
+    }
+
+    @Override
+    public long getSuperClassCalls() {
+        return superClass.sum();
+    }
+
+    @Override
+    public long getCommonSuperClassCalls() {
+        return commonSuperClass.sum();
+    }
+
+    @Override
+    public long getCommonSuperClassHits() {
+        return commonSuperClassHits.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getMissingHits() {
+        return missingHits.sum();
+    }
+
+    @Override
+    public long getFlattens() {
+        return flattens.sum();
+    }
+
+    @Override
+    public long getClassCount() {
+        long count = 0;
+        for (Tracked t : trackedCopy()) {
+            count += t.size();
+        }
+        return count;
+    }
+
+    @Override
+    public long getMemoryEstimate() {
+        long memory = 0;
+        for (Tracked t : trackedCopy()) {
+            memory += t.estimateMemory();
+        }
+        return memory;
+    }
+
+    @Override
+    public Map<String, Histogram.Snapshot> getResolveTimes() {
+        Map<String, Histogram.Snapshot> snapshot = new LinkedHashMap<>();
+        for (Source source : Source.values()) {
+            snapshot.put(source.name().toLowerCase(Locale.ROOT), resolveTimes[source.ordinal()].snapshot());
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    @Override
+    public void reset() {
+        classExtends.reset();
+        superClass.reset();
+        commonSuperClass.reset();
+        commonSuperClassHits.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        missingHits.reset();
+        flattens.reset();
+        for (Histogram h : resolveTimes) {
+            h.reset();
+        }
+    }
+
+    private List<Tracked> trackedCopy() {
+        synchronized (tracked) {
+            return new ArrayList<>(tracked);
+        }
+    }
+
+    /**
+     * An immutable copy of {@link HierarchyMetrics}.
+     */
+    public static class Snapshot {
+
+        public final long classExtendsCalls;
+        public final long superClassCalls;
+        public final long commonSuperClassCalls;
+        public final long commonSuperClassHits;
+        public final long cacheHits;
+        public final long cacheMisses;
+        public final long missingHits;
+        public final long flattens;
+        public final long classCount;
+        public final long memoryEstimate;
+        public final Map<String, Histogram.Snapshot> resolveTimes;
+
+        Snapshot(HierarchyMetrics m) {
+            classExtendsCalls = m.getClassExtendsCalls();
+            superClassCalls = m.getSuperClassCalls();
+            commonSuperClassCalls = m.getCommonSuperClassCalls();
+            commonSuperClassHits = m.getCommonSuperClassHits();
+            cacheHits = m.getCacheHits();
+            cacheMisses = m.getCacheMisses();
+            missingHits = m.getMissingHits();
+            flattens = m.getFlattens();
+            classCount = m.getClassCount();
+            memoryEstimate = m.getMemoryEstimate();
+            resolveTimes = m.getResolveTimes();
+        }
+    }
+}
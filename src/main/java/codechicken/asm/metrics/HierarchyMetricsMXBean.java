@@ -0,0 +1,58 @@
+package codechicken.asm.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link HierarchyMetrics}.
+ * Registered as {@code codechicken.asm:type=HierarchyMetrics} when metrics are enabled.
+ */
+public interface HierarchyMetricsMXBean {
+
+    long getClassExtendsCalls();
+
+    long getSuperClassCalls();
+
+    long getCommonSuperClassCalls();
+
+    /**
+     * @return Number of common super class requests answered from a memo.
+     */
+    long getCommonSuperClassHits();
+
+    /**
+     * @return Number of class requests answered by an already resolved class.
+     */
+    long getCacheHits();
+
+    /**
+     * @return Number of class requests that had to resolve the class.
+     */
+    long getCacheMisses();
+
+    /**
+     * @return Number of class requests answered by the cache of unresolvable classes.
+     */
+    long getMissingHits();
+
+    /**
+     * @return Number of times a class's super types were flattened.
+     */
+    long getFlattens();
+
+    /**
+     * @return Number of classes currently held by every live hierarchy.
+     */
+    long getClassCount();
+
+    /**
+     * @return Rough estimate of the memory held by every live hierarchy, in bytes.
+     */
+    long getMemoryEstimate();
+
+    /**
+     * @return Time spent resolving classes, by where they were resolved from.
+     */
+    Map<String, Histogram.Snapshot> getResolveTimes();
+
+    void reset();
+}
@@ -0,0 +1,43 @@
+package codechicken.asm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Shared switch and helpers for the library's metrics.
+ * Metrics are only collected when {@code ccl.asm.metrics} is set to true, otherwise every
+ * recording call is a constant false check the JIT removes.
+ */
+public final class Metrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("ccl.asm.metrics", "false"));
+
+    private Metrics() {
+    }
+
+    /**
+     * @return The current time in nanoseconds, or 0 if metrics are disabled.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Registers the provided MXBean with the platform MBean server.
+     *
+     * @param bean The bean.
+     * @param name The object name.
+     */
+    static void register(Object bean, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register MXBean {}.", name, e);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package codechicken.asm.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters for the transform pipeline.
+ * <p>
+ * Use {@link #snapshot()} to read them programmatically, or the {@link TransformMetricsMXBean} over JMX.
+ * Nothing is recorded unless {@link Metrics#ENABLED}.
+ * Times for each class are only kept when {@link #PER_CLASS} is also set, as every class loaded adds an entry.
+ */
+public class TransformMetrics implements TransformMetricsMXBean {
+
+    public static final boolean PER_CLASS = Boolean.parseBoolean(System.getProperty("ccl.asm.metrics.per_class", "false"));
+
+    public static final TransformMetrics INSTANCE = new TransformMetrics();
+
+    static {
+        if (Metrics.ENABLED) {
+            Metrics.register(INSTANCE, "codechicken.asm:type=TransformMetrics");
+        }
+    }
+
+    private final LongAdder classes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder needleSearches = new LongAdder();
+    private final LongAdder needleMatches = new LongAdder();
+    private final Histogram parse = new Histogram();
+    private final Histogram transform = new Histogram();
+    private final Histogram write = new Histogram();
+    private final Histogram frames = new Histogram();
+    private final Histogram commonSuperClass = new Histogram();
+    private final Map<String, Histogram> classTimes = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> transformerTimes = new ConcurrentHashMap<>();
+
+    public void parse(long start) {
+        if (Metrics.ENABLED) {
+            parse.record(System.nanoTime() - start);
+        }
+    }
+
+    public void transform(long start) {
+        if (Metrics.ENABLED) {
+            transform.record(System.nanoTime() - start);
+        }
+    }
+
+    public void transformer(Object transformer, long start) {
+        if (Metrics.ENABLED) {
+            transformerTime(transformer, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records time already measured by the caller, for transformers applied as part of a larger step.
+     */
+    public void transformerTime(Object transformer, long time) {
+        if (Metrics.ENABLED) {
+            transformerTimes.computeIfAbsent(transformer.toString(), e -> new Histogram()).record(time);
+        }
+    }
+
+    public void write(long start) {
+        if (Metrics.ENABLED) {
+            write.record(System.nanoTime() - start);
+        }
+    }
+
+    public void frames(long start) {
+        if (Metrics.ENABLED) {
+            frames.record(System.nanoTime() - start);
+        }
+    }
+
+    public void commonSuperClass(long start) {
+        if (Metrics.ENABLED) {
+            commonSuperClass.record(System.nanoTime() - start);
+        }
+    }
+
+    public void classTransformed(String name, long start, int in, int out) {
+        if (Metrics.ENABLED) {
+            long time = System.nanoTime() - start;
+            classes.increment();
+            bytesIn.add(in);
+            bytesOut.add(out);
+            classTime(name, time);
+        }
+    }
+
+    public void classFailed(String name, long start) {
+        if (Metrics.ENABLED) {
+            long time = System.nanoTime() - start;
+            failures.increment();
+            classTime(name, time);
+        }
+    }
+
+    private void classTime(String name, long time) {
+        if (PER_CLASS) {
+            classTimes.computeIfAbsent(name, e -> new Histogram()).record(time);
+        }
+    }
+
+    public void needleSearch(int matches) {
+        if (Metrics.ENABLED) {
+            needleSearches.increment();
+            needleMatches.add(matches);
+        }
+    }
+
+    /**
+     * @return An immutable copy of the current metrics.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public long getClassesTransformed() {
+        return classes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getNeedleSearches() {
+        return needleSearches.sum();
+    }
+
+    @Override
+    public long getNeedleMatches() {
+        return needleMatches.sum();
+    }
+
+    @Override
+    public Histogram.Snapshot getParseTime() {
+        return parse.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getTransformTime() {
+        return transform.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getWriteTime() {
+        return write.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getFrameTime() {
+        return frames.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getCommonSuperClassTime() {
+        return commonSuperClass.snapshot();
+    }
+
+    @Override
+    public Map<String, Histogram.Snapshot> getClassTimes() {
+        return snapshot(classTimes);
+    }
+
+    @Override
+    public Map<String, Histogram.Snapshot> getTransformerTimes() {
+        return snapshot(transformerTimes);
+    }
+
+    @Override
+    public void reset() {
+        classes.reset();
+        failures.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        needleSearches.reset();
+        needleMatches.reset();
+        parse.reset();
+        transform.reset();
+        write.reset();
+        frames.reset();
+        commonSuperClass.reset();
+        classTimes.clear();
+        transformerTimes.clear();
+    }
+
+    private static Map<String, Histogram.Snapshot> snapshot(Map<String, Histogram> map) {
+        Map<String, Histogram.Snapshot> snapshot = new TreeMap<>();
+        map.forEach((k, v) -> snapshot.put(k, v.snapshot()));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * An immutable copy of {@link TransformMetrics}.
+     */
+    public static class Snapshot {
+
+        public final long classesTransformed;
+        public final long failures;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long needleSearches;
+        public final long needleMatches;
+        public final Histogram.Snapshot parseTime;
+        public final Histogram.Snapshot transformTime;
+        public final Histogram.Snapshot writeTime;
+        public final Histogram.Snapshot frameTime;
+        public final Histogram.Snapshot commonSuperClassTime;
+        public final Map<String, Histogram.Snapshot> classTimes;
+        public final Map<String, Histogram.Snapshot> transformerTimes;
+
+        Snapshot(TransformMetrics m) {
+            classesTransformed = m.getClassesTransformed();
+            failures = m.getFailures();
+            bytesIn = m.getBytesIn();
+            bytesOut = m.getBytesOut();
+            needleSearches = m.getNeedleSearches();
+            needleMatches = m.getNeedleMatches();
+            parseTime = m.getParseTime();
+            transformTime = m.getTransformTime();
+            writeTime = m.getWriteTime();
+            frameTime = m.getFrameTime();
+            commonSuperClassTime = m.getCommonSuperClassTime();
+            classTimes = m.getClassTimes();
+            transformerTimes = m.getTransformerTimes();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package codechicken.asm.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link TransformMetrics}.
+ * Registered as {@code codechicken.asm:type=TransformMetrics} when metrics are enabled.
+ */
+public interface TransformMetricsMXBean {
+
+    long getClassesTransformed();
+
+    long getFailures();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    /**
+     * @return Number of needle searches run by {@link codechicken.asm.InsnComparator}.
+     */
+    long getNeedleSearches();
+
+    /**
+     * @return Number of needle matches found by {@link codechicken.asm.InsnComparator}.
+     */
+    long getNeedleMatches();
+
+    /**
+     * @return Time spent reading class bytes into a ClassNode.
+     */
+    Histogram.Snapshot getParseTime();
+
+    /**
+     * @return Time spent running all transformers on a class.
+     */
+    Histogram.Snapshot getTransformTime();
+
+    /**
+     * @return Time spent writing class bytes, including any frames computed by the ClassWriter for the whole class.
+     */
+    Histogram.Snapshot getWriteTime();
+
+    /**
+     * @return Time spent computing frames one method at a time.
+     */
+    Histogram.Snapshot getFrameTime();
+
+    /**
+     * @return Time spent resolving common super classes during frame computation.
+     */
+    Histogram.Snapshot getCommonSuperClassTime();
+
+    /**
+     * @return Total transform time for each class, empty unless {@code ccl.asm.metrics.per_class} is set.
+     */
+    Map<String, Histogram.Snapshot> getClassTimes();
+
+    /**
+     * @return Time spent in each transformer.
+     */
+    Map<String, Histogram.Snapshot> getTransformerTimes();
+
+    void reset();
+}
@@ -1,6 +1,8 @@
 package codechicken.asm.transformers;
 
+import codechicken.asm.Fingerprinter;
 import codechicken.asm.ObfMapping;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
@@ -27,4 +29,75 @@ public abstract class ClassNodeTransformer {
 
     public void addMethodsToSort(Set<ObfMapping> set) {
     }
+
+    /**
+     * Adds every method this transformer reads or modifies to the provided set.
+     * When all transformers for a class declare their methods, only those methods are expanded into the
+     * {@link ClassNode}, every other method is copied byte-for-byte.
+     *
+     * @param set The set to add to.
+     * @return false if this transformer may touch any method of the class.
+     */
+    public boolean addTargetMethods(Set<ObfMapping> set) {
+        return false;
+    }
+
+    /**
+     * Used by {@link #addTargetMethods} overrides, a subclass that replaces {@link #transform(ClassNode)}
+     * could touch any method.
+     *
+     * @param base The class whose transform declares the methods.
+     * @return If {@link #transform(ClassNode)} is still the one declared by base.
+     */
+    protected boolean transformDeclaredBy(Class<? extends ClassNodeTransformer> base) {
+        try {
+            return getClass().getMethod("transform", ClassNode.class).getDeclaringClass() == base;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The parts of the class this transformer can do without, as {@link ClassReader} flags.
+     * Only {@link ClassReader#SKIP_FRAMES} is considered, the reader skips frames only if every transformer
+     * for the class allows it.
+     * <p>
+     * By default nothing is skipped, a transformer may read frames even when they are recomputed.
+     *
+     * @return The flags.
+     */
+    public int readerFlags() {
+        return 0;
+    }
+
+    /**
+     * Feeds everything that affects the output of this transformer into the provided {@link Fingerprinter}.
+     * Used to key cached transform results. A transformer that can't describe its output this way,
+     * which is every transformer that doesn't override this, leaves its classes out of the cache.
+     * Subclasses that add state to a transformer overriding this must override it again.
+     *
+     * @param fp The Fingerprinter.
+     * @return If the transformer was fingerprinted, false if classes it transforms must never be cached.
+     */
+    public boolean fingerprint(Fingerprinter fp) {
+        return false;
+    }
+
+    /**
+     * Feeds what identifies this transformer into the provided {@link Fingerprinter},
+     * for overrides of {@link #fingerprint} to build on.
+     *
+     * @param fp The Fingerprinter.
+     * @return The Fingerprinter.
+     */
+    protected Fingerprinter fingerprintIdentity(Fingerprinter fp) {
+        return fp.putClass(getClass())
+                .putInt(writeFlags)
+                .putString(className());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " " + className();
+    }
 }
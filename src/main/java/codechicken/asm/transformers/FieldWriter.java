@@ -1,13 +1,16 @@
 package codechicken.asm.transformers;
 
+import codechicken.asm.Fingerprinter;
 import codechicken.asm.ModularASMTransformer;
 import codechicken.asm.ObfMapping;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Set;
 
 /**
  * Writes a field to a class.
@@ -29,6 +32,7 @@ public class FieldWriter extends ClassNodeTransformer {
      * @param value  The default value for the field.
      */
     public FieldWriter(@Nonnull int access, @Nonnull ObfMapping field, @Nullable Object value) {
+        super(0);//No code is touched, nothing to compute.
         this.field = field;
         this.access = access;
         this.value = value;
@@ -49,6 +53,25 @@ public class FieldWriter extends ClassNodeTransformer {
         return field.javaClass();
     }
 
+    @Override
+    public boolean addTargetMethods(Set<ObfMapping> set) {
+        return transformDeclaredBy(FieldWriter.class);
+    }
+
+    @Override
+    public int readerFlags() {
+        return ClassReader.SKIP_FRAMES;
+    }
+
+    @Override
+    public boolean fingerprint(Fingerprinter fp) {
+        fingerprintIdentity(fp)
+                .putInt(access)
+                .putMapping(field)
+                .putObject(value);
+        return true;
+    }
+
     @Override
     public void transform(ClassNode cNode) {
         if (ModularASMTransformer.DEBUG) {
@@ -1,6 +1,8 @@
 package codechicken.asm.transformers;
 
 import codechicken.asm.*;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodNode;
 import org.slf4j.Logger;
@@ -14,7 +16,7 @@ import java.util.Set;
  * Injects a call before or after the needle.
  * If needle is null it will inject at the start or end of the method.
  */
-public class MethodInjector extends MethodTransformer {
+public class MethodInjector extends NeedleTransformer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodInjector.class);
 
@@ -78,6 +80,32 @@ public class MethodInjector extends MethodTransformer {
         set.add(method);
     }
 
+    @Override
+    public int readerFlags() {
+        return (writeFlags & ClassWriter.COMPUTE_FRAMES) != 0 ? ClassReader.SKIP_FRAMES : 0;
+    }
+
+    @Override
+    public boolean fingerprint(Fingerprinter fp) {
+        fingerprintIdentity(fp)
+                .putBlock(needle)
+                .putBlock(injection)
+                .putBoolean(before);
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public ASMBlock getNeedle() {
+        return needle;
+    }
+
+    @Nonnull
+    @Override
+    public ASMBlock getInsertion() {
+        return injection;
+    }
+
     @Override
     public void transform(MethodNode mv) {
         if (needle == null) {
@@ -92,20 +120,23 @@ public class MethodInjector extends MethodTransformer {
                 mv.instructions.add(injection.rawListCopy());
             }
         } else {
-            for (InsnListSection key : InsnComparator.findN(mv.instructions, needle.list)) {
-                if (ModularASMTransformer.DEBUG) {
-                    LOGGER.info("Injecting {} method '{}' @ {} - {}", before ? "before" : "after", method, key.start, key.end);
-                } else {
-                    LOGGER.debug("Injecting {} method '{}' @ {} - {}", before ? "before" : "after", method, key.start, key.end);
-                }
-                ASMBlock injectBlock = injection.copy().mergeLabels(needle.applyLabels(key));
-
-                if (before) {
-                    key.insertBefore(injectBlock.list.list);
-                } else {
-                    key.insert(injectBlock.list.list);
-                }
-            }
+            super.transform(mv);
+        }
+    }
+
+    @Override
+    public void transform(MethodNode mv, InsnListSection key) {
+        if (ModularASMTransformer.DEBUG) {
+            LOGGER.info("Injecting {} method '{}' @ {} - {}", before ? "before" : "after", method, key.start, key.end);
+        } else {
+            LOGGER.debug("Injecting {} method '{}' @ {} - {}", before ? "before" : "after", method, key.start, key.end);
+        }
+        ASMBlock injectBlock = injection.copy().mergeLabels(needle.applyLabels(key));
+
+        if (before) {
+            key.insertBefore(injectBlock.list.list);
+        } else {
+            key.insert(injectBlock.list.list);
         }
     }
 }
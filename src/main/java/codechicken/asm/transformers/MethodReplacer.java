@@ -1,6 +1,8 @@
 package codechicken.asm.transformers;
 
 import codechicken.asm.*;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodNode;
 import org.slf4j.Logger;
@@ -13,7 +15,7 @@ import java.util.Set;
  * Replaces a specific needle with a specific replacement.
  * Can replace more than one needle.
  */
-public class MethodReplacer extends MethodTransformer {
+public class MethodReplacer extends NeedleTransformer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodReplacer.class);
 
@@ -50,15 +52,43 @@ public class MethodReplacer extends MethodTransformer {
     }
 
     @Override
-    public void transform(MethodNode mv) {
-        for (InsnListSection key : InsnComparator.findN(mv.instructions, needle.list)) {
-            if (ModularASMTransformer.DEBUG) {
-                LOGGER.info("Replacing method '{}' @ {} - {}.", method, key.start, key.end);
-            } else {
-                LOGGER.debug("Replacing method '{}' @ {} - {}.", method, key.start, key.end);
-            }
-            ASMBlock replaceBlock = replacement.copy().pullLabels(needle.applyLabels(key));
-            key.insert(replaceBlock.list.list);
+    public int readerFlags() {
+        return (writeFlags & ClassWriter.COMPUTE_FRAMES) != 0 ? ClassReader.SKIP_FRAMES : 0;
+    }
+
+    @Override
+    public boolean fingerprint(Fingerprinter fp) {
+        fingerprintIdentity(fp)
+                .putBlock(needle)
+                .putBlock(replacement);
+        return true;
+    }
+
+    @Nonnull
+    @Override
+    public ASMBlock getNeedle() {
+        return needle;
+    }
+
+    @Nonnull
+    @Override
+    public ASMBlock getInsertion() {
+        return replacement;
+    }
+
+    @Override
+    public boolean removesNeedle() {
+        return true;
+    }
+
+    @Override
+    public void transform(MethodNode mv, InsnListSection key) {
+        if (ModularASMTransformer.DEBUG) {
+            LOGGER.info("Replacing method '{}' @ {} - {}.", method, key.start, key.end);
+        } else {
+            LOGGER.debug("Replacing method '{}' @ {} - {}.", method, key.start, key.end);
         }
+        ASMBlock replaceBlock = replacement.copy().pullLabels(needle.applyLabels(key));
+        key.insert(replaceBlock.list.list);
     }
 }
@@ -1,9 +1,12 @@
 package codechicken.asm.transformers;
 
+import codechicken.asm.Fingerprinter;
 import codechicken.asm.ObfMapping;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.util.Set;
+
 import static codechicken.asm.ASMHelper.findMethod;
 
 /**
@@ -22,6 +25,23 @@ public abstract class MethodTransformer extends ClassNodeTransformer {
         return method.javaClass();
     }
 
+    @Override
+    public boolean addTargetMethods(Set<ObfMapping> set) {
+        set.add(method);
+        return transformDeclaredBy(MethodTransformer.class);
+    }
+
+    @Override
+    protected Fingerprinter fingerprintIdentity(Fingerprinter fp) {
+        return super.fingerprintIdentity(fp)
+                .putMapping(method);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " " + method;
+    }
+
     @Override
     public void transform(ClassNode cnode) {
         MethodNode mv = findMethod(method, cnode);
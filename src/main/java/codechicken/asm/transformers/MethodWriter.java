@@ -1,8 +1,11 @@
 package codechicken.asm.transformers;
 
 import codechicken.asm.ASMBlock;
+import codechicken.asm.Fingerprinter;
 import codechicken.asm.ModularASMTransformer;
 import codechicken.asm.ObfMapping;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodNode;
@@ -11,6 +14,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Set;
 
 import static codechicken.asm.ASMHelper.findMethod;
 
@@ -101,6 +105,27 @@ public class MethodWriter extends ClassNodeTransformer {
         return method.javaClass();
     }
 
+    @Override
+    public boolean addTargetMethods(Set<ObfMapping> set) {
+        set.add(method);
+        return transformDeclaredBy(MethodWriter.class);
+    }
+
+    @Override
+    public int readerFlags() {
+        return (writeFlags & ClassWriter.COMPUTE_FRAMES) != 0 ? ClassReader.SKIP_FRAMES : 0;
+    }
+
+    @Override
+    public boolean fingerprint(Fingerprinter fp) {
+        fingerprintIdentity(fp)
+                .putInt(access)
+                .putMapping(method)
+                .putStrings(exceptions)
+                .putInsns(list);
+        return true;
+    }
+
     @Override
     public void transform(ClassNode cnode) {
         MethodNode mv = findMethod(method, cnode);
@@ -0,0 +1,285 @@
+package codechicken.asm.transformers;
+
+import codechicken.asm.*;
+import codechicken.asm.metrics.Metrics;
+import codechicken.asm.metrics.TransformMetrics;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static org.objectweb.asm.tree.AbstractInsnNode.*;
+
+/**
+ * Base for method transformers that edit every occurrence of a needle.
+ * Needle transformers on the same method are searched for together, see {@link Batch}.
+ */
+public abstract class NeedleTransformer extends MethodTransformer {
+
+    //The compiled needle, rebuilt if the needle is replaced.
+    @Nullable
+    private volatile InsnMatcher matcher;
+
+    public NeedleTransformer(ObfMapping method) {
+        super(method);
+    }
+
+    /**
+     * @return The needle to edit, or null if this transformer does not search for one.
+     */
+    @Nullable
+    public abstract ASMBlock getNeedle();
+
+    /**
+     * @return The needle compiled for searching, built once and reused by every transform.
+     */
+    public InsnMatcher getMatcher() {
+        InsnListSection needle = getNeedle().list;
+        InsnMatcher matcher = this.matcher;
+        if (matcher == null || matcher.needles.get(0) != needle) {
+            this.matcher = matcher = new InsnMatcher(needle);
+        }
+        return matcher;
+    }
+
+    /**
+     * @return The instructions added at each occurrence of the needle.
+     */
+    @Nonnull
+    public abstract ASMBlock getInsertion();
+
+    /**
+     * @return If each occurrence of the needle is removed.
+     */
+    public boolean removesNeedle() {
+        return false;
+    }
+
+    /**
+     * Edits one occurrence of the needle.
+     * Only instructions from the start of key onwards may be touched, so earlier sections stay valid.
+     * Edits must be made through key, which keeps the method's tracked control flow labels up to date,
+     * see {@link InsnListSection#trackControlFlowLabels()}.
+     *
+     * @param mv  The method.
+     * @param key The occurrence.
+     */
+    public abstract void transform(MethodNode mv, InsnListSection key);
+
+    /**
+     * Edits every occurrence of the needle, last first.
+     */
+    @Override
+    public void transform(MethodNode mv) {
+        List<InsnListSection> keys = InsnComparator.findN(new InsnListSection(mv.instructions).trackControlFlowLabels(), getMatcher());
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            transform(mv, keys.get(i));
+        }
+    }
+
+    /**
+     * Groups consecutive needle transformers on the same method into {@link Batch}es, compiling every needle.
+     * Transformers on different methods can not affect each other, so they may be reordered,
+     * everything else keeps its place relative to the transformers on the methods it could touch.
+     *
+     * @param transformers The transformers, in the order they are to be applied.
+     * @return The transformers to apply instead.
+     */
+    public static List<ClassNodeTransformer> batch(List<ClassNodeTransformer> transformers) {
+        List<ClassNodeTransformer> steps = new ArrayList<>();
+        Map<ObfMapping, List<NeedleTransformer>> open = new LinkedHashMap<>();
+        for (ClassNodeTransformer t : transformers) {
+            if (t instanceof NeedleTransformer && ((NeedleTransformer) t).getNeedle() != null) {
+                NeedleTransformer nt = (NeedleTransformer) t;
+                nt.getMatcher();
+                List<NeedleTransformer> group = open.get(nt.method);
+                if (group != null && !group.stream().allMatch(e -> independent(e, nt))) {
+                    close(steps, open.remove(nt.method));
+                    group = null;
+                }
+                if (group == null) {
+                    open.put(nt.method, group = new ArrayList<>());
+                }
+                group.add(nt);
+            } else if (t instanceof MethodTransformer) {
+                close(steps, open.remove(((MethodTransformer) t).method));
+                steps.add(t);
+            } else {
+                open.values().forEach(group -> close(steps, group));
+                open.clear();
+                steps.add(t);
+            }
+        }
+        open.values().forEach(group -> close(steps, group));
+        return steps;
+    }
+
+    private static void close(List<ClassNodeTransformer> steps, @Nullable List<NeedleTransformer> group) {
+        if (group != null) {
+            steps.add(group.size() == 1 ? group.get(0) : new Batch(group));
+        }
+    }
+
+    /**
+     * Checks that the edits of earlier can neither create nor destroy occurrences of the needle of later.
+     * Conservative, instructions are compared with {@link InsnComparator#insnEqual} regardless of position.
+     *
+     * @return If later finds the same occurrences before and after earlier is applied, barring overlaps.
+     */
+    public static boolean independent(NeedleTransformer earlier, NeedleTransformer later) {
+        InsnListSection insertion = earlier.getInsertion().list;
+        Set<LabelNode> controlFlowLabels = InsnComparator.getControlFlowLabels(insertion);
+        boolean important = false;
+        for (AbstractInsnNode insn : insertion) {
+            if (!InsnComparator.insnImportant(insn, controlFlowLabels)) {
+                continue;
+            }
+            important = true;
+            for (AbstractInsnNode ninsn : later.getNeedle().list) {
+                if (InsnComparator.insnEqual(insn, ninsn)) {
+                    return false;
+                }
+            }
+        }
+        if (!earlier.removesNeedle()) {
+            return true;
+        }
+        //Removing a needle could join the instructions either side of it, or leave a label without a jump.
+        if (!important) {
+            return false;
+        }
+        for (AbstractInsnNode insn : earlier.getNeedle().list) {
+            switch (insn.getType()) {
+                case JUMP_INSN:
+                case TABLESWITCH_INSN:
+                case LOOKUPSWITCH_INSN:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Needle transformers on one method, found with a single search of the method.
+     * Only built from transformers that are {@link #independent} of each other, so the occurrences found up front
+     * are the ones each transformer would have found when applied in order. The edits are then applied
+     * last occurrence first, which keeps every section valid and gives the same result as applying
+     * the transformers in order.
+     * <p>
+     * If occurrences of different needles overlap or a needle is missing, the transformers are applied
+     * one after another instead.
+     * <p>
+     * Time is recorded against each transformer, the shared search is split evenly between them.
+     */
+    public static class Batch extends MethodTransformer {
+
+        public final List<NeedleTransformer> transformers;
+        //Every needle compiled together, rebuilt if any needle is replaced.
+        @Nullable
+        private volatile InsnMatcher matcher;
+
+        public Batch(List<NeedleTransformer> transformers) {
+            super(transformers.get(0).method);
+            this.transformers = Collections.unmodifiableList(new ArrayList<>(transformers));
+            getMatcher();
+        }
+
+        /**
+         * @return Every needle compiled for a single search, built once and reused by every transform.
+         */
+        public InsnMatcher getMatcher() {
+            InsnMatcher matcher = this.matcher;
+            if (matcher == null || !current(matcher)) {
+                List<InsnListSection> needles = new ArrayList<>();
+                for (NeedleTransformer t : transformers) {
+                    needles.add(t.getNeedle().list);
+                }
+                this.matcher = matcher = new InsnMatcher(needles);
+            }
+            return matcher;
+        }
+
+        private boolean current(InsnMatcher matcher) {
+            for (int i = 0; i < transformers.size(); i++) {
+                if (matcher.needles.get(i) != transformers.get(i).getNeedle().list) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void transform(MethodNode mv) {
+            long start = Metrics.start();
+            List<List<InsnListSection>> found = InsnComparator.findAll(new InsnListSection(mv.instructions).trackControlFlowLabels(), getMatcher());
+            long[] times = new long[transformers.size()];
+            if (Metrics.ENABLED) {
+                Arrays.fill(times, (System.nanoTime() - start) / times.length);
+            }
+            List<Edit> edits = new ArrayList<>();
+            for (int i = 0; i < found.size(); i++) {
+                if (found.get(i).isEmpty()) {
+                    sequential(mv, times);
+                    return;
+                }
+                for (InsnListSection key : found.get(i)) {
+                    edits.add(new Edit(i, key));
+                }
+            }
+            edits.sort(Comparator.comparingInt(e -> e.key.start));
+            for (int i = 1; i < edits.size(); i++) {
+                if (edits.get(i - 1).key.end > edits.get(i).key.start) {
+                    sequential(mv, times);
+                    return;
+                }
+            }
+
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                Edit edit = edits.get(i);
+                long eStart = Metrics.start();
+                transformers.get(edit.index).transform(mv, edit.key);
+                if (Metrics.ENABLED) {
+                    times[edit.index] += System.nanoTime() - eStart;
+                }
+            }
+            record(times);
+        }
+
+        private void sequential(MethodNode mv, long[] times) {
+            for (int i = 0; i < transformers.size(); i++) {
+                long start = Metrics.start();
+                transformers.get(i).transform(mv);
+                if (Metrics.ENABLED) {
+                    times[i] += System.nanoTime() - start;
+                }
+            }
+            record(times);
+        }
+
+        private void record(long[] times) {
+            for (int i = 0; i < times.length; i++) {
+                TransformMetrics.INSTANCE.transformerTime(transformers.get(i), times[i]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getName() + " " + method + " x" + transformers.size();
+        }
+    }
+
+    private static class Edit {
+
+        //The transformer's index in the batch.
+        final int index;
+        final InsnListSection key;
+
+        Edit(int index, InsnListSection key) {
+            this.index = index;
+            this.key = key;
+        }
+    }
+}
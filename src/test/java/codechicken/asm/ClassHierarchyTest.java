@@ -0,0 +1,130 @@
+package codechicken.asm;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassHierarchyTest {
+
+    private static final String[] CLASSES = {
+            "java.lang.Object", "java.lang.String", "java.lang.Integer", "java.lang.Number", "java.lang.Comparable",
+            "java.lang.CharSequence", "java.lang.Thread", "java.lang.Runnable", "java.lang.Exception", "java.lang.RuntimeException",
+            "java.lang.IllegalStateException", "java.io.InputStream", "java.io.FileInputStream", "java.io.Closeable",
+            "java.util.Collection", "java.util.List", "java.util.AbstractList", "java.util.ArrayList", "java.util.LinkedList",
+            "java.util.RandomAccess", "java.util.Map", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ForkJoinPool",
+            "org.objectweb.asm.ClassVisitor", "org.objectweb.asm.ClassWriter", "org.objectweb.asm.tree.ClassNode",
+            "org.objectweb.asm.MethodVisitor", "org.objectweb.asm.tree.MethodNode", "org.objectweb.asm.commons.LocalVariablesSorter",
+            "test.Base", "test.Left", "test.Right", "test.LeftChild", "test.Unresolved", "test.Orphan"
+    };
+
+    //Classes only known through declare, test.Orphan extends a class nothing can find.
+    private static void declare(ClassHierarchy hierarchy) {
+        hierarchy.declare("test.Base", "java.util.AbstractList", Collections.singletonList("java.io.Closeable"));
+        hierarchy.declare("test.Left", "test.Base", Collections.emptyList());
+        hierarchy.declare("test.Right", "test.Base", Collections.singletonList("java.lang.Runnable"));
+        hierarchy.declare("test.LeftChild", "test.Left", Collections.emptyList());
+        hierarchy.declare("test.Orphan", "test.Missing", Collections.emptyList());
+    }
+
+    @Test
+    public void testConcurrentMatchesSingleThreaded() throws Exception {
+        ClassHierarchy reference = new ClassHierarchy();
+        declare(reference);
+        Map<String, String> expected = new HashMap<>();
+        for (String a : CLASSES) {
+            for (String b : CLASSES) {
+                expected.put(a + " " + b, answers(reference, a, b));
+            }
+        }
+
+        for (int budget : new int[] { 0, 16 }) {
+            ClassHierarchy hierarchy = new ClassHierarchy(budget);
+            declare(hierarchy);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<Integer>> futures = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    Random random = new Random(t);
+                    futures.add(executor.submit(() -> {
+                        int mismatches = 0;
+                        for (int i = 0; i < 20000; i++) {
+                            String a = CLASSES[random.nextInt(CLASSES.length)];
+                            String b = CLASSES[random.nextInt(CLASSES.length)];
+                            if (!answers(hierarchy, a, b).equals(expected.get(a + " " + b))) {
+                                mismatches++;
+                            }
+                        }
+                        return mismatches;
+                    }));
+                }
+                int mismatches = 0;
+                for (Future<Integer> future : futures) {
+                    mismatches += future.get();
+                }
+                assertEquals(0, mismatches, "Mismatches with budget " + budget);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static String answers(ClassHierarchy hierarchy, String a, String b) {
+        return hierarchy.classExtends(a, b) + " " + hierarchy.getSuperClass(a) + " " + hierarchy.getCommonSuperClass(a, b);
+    }
+
+    @Test
+    public void testLateResolvedSuperClass() {
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        declare(hierarchy);
+        assertEquals("java.lang.Object", hierarchy.getCommonSuperClass("test.Orphan", "test.Left"));
+        assertFalse(hierarchy.classExtends("test.Orphan", "test.Base"));
+
+        hierarchy.declare("test.Missing", "test.Base", Collections.emptyList());
+        assertEquals("test.Base", hierarchy.getCommonSuperClass("test.Orphan", "test.Left"));
+        assertTrue(hierarchy.classExtends("test.Orphan", "test.Base"));
+        assertEquals(hierarchy.getDepth("test.LeftChild"), hierarchy.getDepth("test.Orphan"));
+    }
+
+    @Test
+    public void testSlowLookupIsResolvedByWaitingThread() throws Exception {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "test/Slow", null, "java/util/AbstractList", null);
+        cw.visitEnd();
+        byte[] bytes = cw.toByteArray();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        hierarchy.lookupWait = 50;
+        Thread owner = new Thread(() -> hierarchy.getSuperClass("test.Slow"));
+        hierarchy.addByteLookupFunc(name -> {
+            if (!name.equals("test.Slow")) {
+                return null;
+            }
+            if (Thread.currentThread() == owner) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return bytes;
+        });
+
+        owner.start();
+        started.await();
+        try {
+            assertEquals("java.util.AbstractList", hierarchy.getSuperClass("test.Slow"));
+            assertEquals(1, hierarchy.getLookupTimeoutCount());
+        } finally {
+            release.countDown();
+            owner.join();
+        }
+    }
+}